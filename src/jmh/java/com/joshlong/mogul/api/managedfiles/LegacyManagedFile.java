@@ -0,0 +1,102 @@
+package com.joshlong.mogul.api.managedfiles;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * the way {@link ManagedFile} used to hold its state, with a wrapper per field and a lock
+ * per instance, kept around only so the benchmarks have something to compare against.
+ */
+class LegacyManagedFile {
+
+	private final AtomicBoolean visible = new AtomicBoolean(false);
+
+	private final AtomicReference<Long> mogulId = new AtomicReference<>();
+
+	private final AtomicReference<Long> id = new AtomicReference<>();
+
+	private final AtomicReference<String> bucket = new AtomicReference<>();
+
+	private final AtomicReference<String> storageFilename = new AtomicReference<>();
+
+	private final AtomicReference<String> folder = new AtomicReference<>();
+
+	private final AtomicReference<String> filename = new AtomicReference<>();
+
+	private final AtomicReference<Date> created = new AtomicReference<>();
+
+	private final AtomicReference<Boolean> written = new AtomicReference<>();
+
+	private final AtomicReference<Long> size = new AtomicReference<>();
+
+	private final AtomicReference<String> contentType = new AtomicReference<>();
+
+	private final AtomicReference<String> etag = new AtomicReference<>();
+
+	private final AtomicReference<Date> updated = new AtomicReference<>();
+
+	private final AtomicReference<String> visibleEtag = new AtomicReference<>();
+
+	private final AtomicReference<String> contentHash = new AtomicReference<>();
+
+	private final AtomicBoolean initialized = new AtomicBoolean();
+
+	private final Lock hydrationLock = new ReentrantLock();
+
+	private final Consumer<LegacyManagedFile> hydration;
+
+	LegacyManagedFile(Long managedFileId, Consumer<LegacyManagedFile> hydration) {
+		this.id.set(managedFileId);
+		this.hydration = hydration;
+	}
+
+	void hydrate(Long mogulId, Long id, String bucket, String storageFilename, String folder, String filename,
+			Date created, boolean written, long size, String contentType, boolean visible, String etag, Date updated,
+			String visibleEtag, String contentHash) {
+		this.hydrationLock.lock();
+		try {
+			this.mogulId.set(mogulId);
+			this.id.set(id);
+			this.bucket.set(bucket);
+			this.storageFilename.set(storageFilename);
+			this.folder.set(folder);
+			this.filename.set(filename);
+			this.created.set(created);
+			this.written.set(written);
+			this.size.set(size);
+			this.contentType.set(contentType);
+			this.visible.set(visible);
+			this.etag.set(etag);
+			this.updated.set(updated);
+			this.visibleEtag.set(visibleEtag);
+			this.contentHash.set(contentHash);
+			this.initialized.set(true);
+		} //
+		finally {
+			this.hydrationLock.unlock();
+		}
+	}
+
+	String storageFilename() {
+		this.ensureInitialized();
+		return this.storageFilename.get();
+	}
+
+	private void ensureInitialized() {
+		if (!this.initialized.get()) {
+			this.hydrationLock.lock();
+			try {
+				if (!this.initialized.get())
+					this.hydration.accept(this);
+			} //
+			finally {
+				this.hydrationLock.unlock();
+			}
+		}
+	}
+
+}
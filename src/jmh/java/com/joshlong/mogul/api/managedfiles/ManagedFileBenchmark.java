@@ -0,0 +1,31 @@
+package com.joshlong.mogul.api.managedfiles;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * how quickly managed files are created, hydrated, and read, before and after collapsing
+ * their state into a single snapshot.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-XX:+UseParallelGC")
+public class ManagedFileBenchmark {
+
+	private long id;
+
+	@Benchmark
+	public String hydrateLegacy() {
+		return ManagedFileSamples.legacyManagedFile(++this.id).storageFilename();
+	}
+
+	@Benchmark
+	public String hydrate() {
+		return ManagedFileSamples.managedFile(++this.id).storageFilename();
+	}
+
+}
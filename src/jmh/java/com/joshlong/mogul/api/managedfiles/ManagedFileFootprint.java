@@ -0,0 +1,25 @@
+package com.joshlong.mogul.api.managedfiles;
+
+import org.openjdk.jol.info.ClassLayout;
+import org.openjdk.jol.info.GraphLayout;
+
+/**
+ * reports how much heap a hydrated managed file takes, before and after collapsing its
+ * state into a single snapshot. the strings are the same either way, so the difference
+ * is all bookkeeping.
+ */
+public class ManagedFileFootprint {
+
+	public static void main(String[] args) {
+		var legacy = ManagedFileSamples.legacyManagedFile(1234L);
+		var current = ManagedFileSamples.managedFile(1234L);
+		System.out.println(ClassLayout.parseInstance(current).toPrintable());
+		System.out.println(GraphLayout.parseInstance(legacy).toFootprint());
+		System.out.println(GraphLayout.parseInstance(current).toFootprint());
+		var legacySize = GraphLayout.parseInstance(legacy).totalSize();
+		var currentSize = GraphLayout.parseInstance(current).totalSize();
+		System.out.printf("before: %d bytes per managed file%n", legacySize);
+		System.out.printf("after:  %d bytes per managed file (%d fewer)%n", currentSize, legacySize - currentSize);
+	}
+
+}
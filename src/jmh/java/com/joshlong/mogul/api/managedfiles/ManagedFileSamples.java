@@ -0,0 +1,32 @@
+package com.joshlong.mogul.api.managedfiles;
+
+import java.sql.Timestamp;
+import java.util.UUID;
+
+/**
+ * hydrates managed files, old and new, with the same realistic-looking values, one
+ * fresh copy of each value per call, just as the JDBC driver would hand them to us.
+ */
+abstract class ManagedFileSamples {
+
+	static ManagedFile managedFile(long id) {
+		var managedFile = new ManagedFile(id, mf -> {
+		});
+		managedFile.hydrate(42L, id, "mogul-managedfiles", UUID.randomUUID().toString(), "podcast-episode-1234",
+				"intro.mp3", new Timestamp(System.currentTimeMillis()), true, 12_345_678L, "audio/mpeg", true,
+				'"' + UUID.randomUUID().toString() + '"', new Timestamp(System.currentTimeMillis()),
+				'"' + UUID.randomUUID().toString() + '"', UUID.randomUUID().toString(), 1L);
+		return managedFile;
+	}
+
+	static LegacyManagedFile legacyManagedFile(long id) {
+		var managedFile = new LegacyManagedFile(id, mf -> {
+		});
+		managedFile.hydrate(42L, id, "mogul-managedfiles", UUID.randomUUID().toString(), "podcast-episode-1234",
+				"intro.mp3", new Timestamp(System.currentTimeMillis()), true, 12_345_678L, "audio/mpeg", true,
+				'"' + UUID.randomUUID().toString() + '"', new Timestamp(System.currentTimeMillis()),
+				'"' + UUID.randomUUID().toString() + '"', UUID.randomUUID().toString());
+		return managedFile;
+	}
+
+}
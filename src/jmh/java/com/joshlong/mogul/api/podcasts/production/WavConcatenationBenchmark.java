@@ -0,0 +1,114 @@
+package com.joshlong.mogul.api.podcasts.production;
+
+import com.joshlong.mogul.api.utils.FileUtils;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.util.Assert;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * concatenates a corpus of decoded segments, the way {@link SegmentIntermediates} leaves
+ * them (16-bit stereo at 44.1kHz, about 10MB a minute), in-process and with the very
+ * ffmpeg filter graph that {@link ConcatenatingPodcastProductionEngine} falls back to
+ * when the segments' formats differ. divide the size of the corpus by the average time to
+ * get the throughput. ffmpeg has to be on the {@code PATH}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class WavConcatenationBenchmark {
+
+	private static final int SAMPLE_RATE = 44_100;
+
+	private static final int BLOCK_ALIGN = 4;
+
+	/**
+	 * how many minutes of audio each segment has.
+	 */
+	@Param({ "1", "10" })
+	public int minutes;
+
+	/**
+	 * how many segments there are.
+	 */
+	@Param({ "5" })
+	public int segments;
+
+	private File directory;
+
+	private List<WavConcatenator.Wav> wavs;
+
+	private List<PodcastProductionEngine.SegmentAudio> segmentAudio;
+
+	private File output;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		this.directory = Files.createTempDirectory("wav-concatenation-benchmark").toFile();
+		this.output = new File(this.directory, "output.wav");
+		var fmt = ByteBuffer.allocate(16)
+			.order(ByteOrder.LITTLE_ENDIAN)
+			.putShort((short) 1)
+			.putShort((short) 2)
+			.putInt(SAMPLE_RATE)
+			.putInt(SAMPLE_RATE * BLOCK_ALIGN)
+			.putShort((short) BLOCK_ALIGN)
+			.putShort((short) 16)
+			.array();
+		var random = new Random(42);
+		var files = new ArrayList<File>();
+		var chunk = new byte[1024 * 1024];
+		for (var i = 0; i < this.segments; i++) {
+			var file = new File(this.directory, "segment-" + i + ".wav");
+			var dataSize = (long) this.minutes * 60 * SAMPLE_RATE * BLOCK_ALIGN;
+			try (var out = new FileOutputStream(file)) {
+				out.getChannel().write(WavConcatenator.header(fmt, dataSize));
+				for (var written = 0L; written < dataSize; written += chunk.length) {
+					random.nextBytes(chunk);
+					out.write(chunk, 0, (int) Math.min(chunk.length, dataSize - written));
+				}
+			}
+			files.add(file);
+		}
+		this.wavs = new ArrayList<>();
+		for (var file : files)
+			this.wavs.add(WavConcatenator.read(file));
+		Assert.state(WavConcatenator.compatible(this.wavs), "the corpus must all be in the same format");
+		this.segmentAudio = files.stream()
+			.map(file -> new PodcastProductionEngine.SegmentAudio(file, Duration.ZERO))
+			.toList();
+		var bytes = files.stream().mapToLong(File::length).sum();
+		System.out.println();
+		System.out.println("the corpus is " + bytes / (1024 * 1024) + "MB");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		FileUtils.delete(this.directory);
+	}
+
+	@Benchmark
+	public long inProcess() throws Exception {
+		WavConcatenator.concatenate(this.wavs, this.output);
+		return this.output.length();
+	}
+
+	@Benchmark
+	public long ffmpeg() throws Exception {
+		ConcatenatingPodcastProductionEngine.concatenateWithFfmpeg(this.segmentAudio, this.output);
+		return this.output.length();
+	}
+
+}
@@ -0,0 +1,82 @@
+package com.joshlong.mogul.api.utils;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * looks up rows by random sets of ids, of random sizes, with a spelled-out
+ * {@code in (...)} list and with a bound array. every size of {@code in} list is a
+ * different statement as far as the driver and the database are concerned, while the
+ * array is always the same one. each trial reports how many statements the connection
+ * ended up preparing on the server: that's the plan cache at work, or not.
+ * <p>
+ * point it at a scratch PostgreSQL database with {@code -Djdbc.url},
+ * {@code -Djdbc.username} and {@code -Djdbc.password}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IdLookupBenchmark {
+
+	private static final int ROWS = 100_000;
+
+	private static final int MAXIMUM_IDS = 200;
+
+	private final Random random = new Random(42);
+
+	private SingleConnectionDataSource dataSource;
+
+	private JdbcClient db;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		this.dataSource = new SingleConnectionDataSource(
+				System.getProperty("jdbc.url", "jdbc:postgresql://localhost:5432/mogul"),
+				System.getProperty("jdbc.username", "mogul"), System.getProperty("jdbc.password", "mogul"), true);
+		this.db = JdbcClient.create(this.dataSource);
+		this.db.sql("create temporary table id_lookup_benchmark (id bigint primary key, name text)").update();
+		this.db.sql("insert into id_lookup_benchmark select g, 'row ' || g from generate_series(1, ?) g")
+			.param(ROWS)
+			.update();
+		this.db.sql("analyze id_lookup_benchmark").update();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		var prepared = this.db.sql("select count(*) from pg_prepared_statements").query(Long.class).single();
+		System.out.println();
+		System.out.println("statements prepared on the server: " + prepared);
+		this.dataSource.destroy();
+	}
+
+	@Benchmark
+	public List<String> inList() {
+		var ids = this.ids().stream().map(Object::toString).collect(Collectors.joining(","));
+		return this.db.sql("select name from id_lookup_benchmark where id in (" + ids + ")").query(String.class).list();
+	}
+
+	@Benchmark
+	public List<String> anyArray() {
+		return JdbcUtils.queryByIds(this.db, "select name from id_lookup_benchmark where id = any(?::bigint[])",
+				this.ids(), (rs, rowNum) -> rs.getString("name"));
+	}
+
+	private List<Long> ids() {
+		var count = 1 + this.random.nextInt(MAXIMUM_IDS);
+		var ids = new ArrayList<Long>(count);
+		for (var i = 0; i < count; i++)
+			ids.add(1L + this.random.nextInt(ROWS));
+		return ids;
+	}
+
+}
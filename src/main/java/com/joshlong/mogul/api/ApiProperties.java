@@ -1,9 +1,11 @@
 package com.joshlong.mogul.api;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
 
 import java.io.File;
 import java.net.URI;
+import java.time.Duration;
 
 @ConfigurationProperties(prefix = "mogul")
 public record ApiProperties(Aws aws, ManagedFiles managedFiles, Transcriptions transcriptions, Podcasts podcasts,
@@ -20,15 +22,133 @@ public record ApiProperties(Aws aws, ManagedFiles managedFiles, Transcriptions t
 		}
 	}
 
-	public record ManagedFiles(S3 s3) {
+	/**
+	 * @param storage which storage engine keeps the bytes. defaults to {@code s3}.
+	 */
+	public record ManagedFiles(StorageEngine storage, S3 s3, FileSystem fileSystem, Cache cache,
+			Deletions deletions, Visibility visibility, Uploads uploads) {
 
-		public record S3(String bucket) {
+		/**
+		 * @param maximumSize the largest request body that may be uploaded to a managed
+		 * file through this service.
+		 */
+		public record Uploads(DataSize maximumSize) {
+		}
+
+		/**
+		 * @param concurrency how many managed files may have their visible copies
+		 * synchronized at the same time, on each node.
+		 * @param batchSize how many managed files whose visible copies are out of date are
+		 * picked up each time we look for them.
+		 */
+		public record Visibility(int concurrency, int batchSize) {
+		}
+
+		/**
+		 * @param batchSize how many deletion requests are claimed and worked on at once.
+		 * @param concurrency how many batches may be worked on at the same time, on each
+		 * node.
+		 * @param attempts how many times to try a batch before giving up on it until the
+		 * claim expires.
+		 * @param claim how long a node may hold on to a batch before another node can
+		 * claim it.
+		 */
+		public record Deletions(int batchSize, int concurrency, int attempts, Duration claim) {
+		}
+
+		public enum StorageEngine {
+
+			S3, FILESYSTEM
+
+		}
+
+		/**
+		 * @param root the directory under which each bucket becomes a directory.
+		 */
+		public record FileSystem(File root) {
+		}
+
+		/**
+		 * @param root the directory in which local copies of managed files are kept.
+		 * it's emptied on startup.
+		 * @param maximumSize how much disk the local copies may use before some are
+		 * evicted, favoring those that are used least often.
+		 * @param rows how the managed file rows themselves are cached.
+		 */
+		public record Cache(File root, DataSize maximumSize, Rows rows) {
+
+			/**
+			 * @param maximumSize how many managed file rows may be kept in memory.
+			 * @param expireAfterWrite how long a row may be kept at all.
+			 * @param revalidateAfter how long a row is used before its version is checked
+			 * against the database. it's how long, at most, it takes to notice a change
+			 * made by another node.
+			 */
+			public record Rows(long maximumSize, Duration expireAfterWrite, Duration revalidateAfter) {
+			}
+		}
+
+		public record S3(String bucket, Multipart multipart) {
+
+			/**
+			 * @param partSize the size of each part of a multipart upload. S3 requires at
+			 * least 5MB for all but the last part.
+			 * @param parallelism how many parts may be in flight at the same time. this is
+			 * also the number of part buffers kept in memory.
+			 * @param copyThreshold objects larger than this are copied between buckets in
+			 * parallel parts rather than with a single request. at most 5GB.
+			 */
+			public record Multipart(DataSize partSize, int parallelism, DataSize copyThreshold) {
+			}
 		}
 	}
 
-	public record Podcasts(Producer production) {
+	public record Podcasts(Producer production, Cache cache) {
+
+		/**
+		 * @param maximumNodes how many podcasts, episodes, and segments, across all
+		 * moguls, may be kept in memory at once.
+		 * @param expireAfterWrite how long a mogul's snapshot may be kept at all.
+		 * @param revalidateAfter how long a snapshot is used before its version is checked
+		 * against the database. it's how long, at most, it takes to notice a change made by
+		 * another node.
+		 */
+		public record Cache(long maximumNodes, Duration expireAfterWrite, Duration revalidateAfter) {
+		}
+
+		/**
+		 * @param engine how the audio of an episode's segments is put together.
+		 * @param intermediates where the decoded audio of each segment is kept between
+		 * productions.
+		 */
+		public record Producer(Amqp amqp, Engine engine, Intermediates intermediates) {
 
-		public record Producer(Amqp amqp) {
+			/**
+			 * @param root the directory in which the decoded segments are kept. it's
+			 * emptied on startup.
+			 * @param maximumSize how much disk the decoded segments may use before some
+			 * are evicted. an hour of decoded audio is about 600MB.
+			 * @param downloads how many segments may be downloaded at the same time.
+			 * @param decoders how many ffmpeg processes may decode segments at the same
+			 * time.
+			 */
+			public record Intermediates(File root, DataSize maximumSize, int downloads, int decoders) {
+			}
+
+			public enum Engine {
+
+				/**
+				 * one ffmpeg pass, straight from the segments to the mp3.
+				 */
+				SINGLE_PASS,
+
+				/**
+				 * the decoded segments are concatenated, in-process if they're all in the
+				 * same format, and the result is encoded in a pass of its own.
+				 */
+				MULTI_PASS
+
+			}
 
 			public record Amqp(String requests, String replies) {
 			}
@@ -7,6 +7,8 @@ import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3Configuration;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
 
 @Configuration
 class AwsConfiguration {
@@ -28,6 +30,16 @@ class AwsConfiguration {
 			.build();
 	}
 
+	@Bean
+	S3Presigner s3Presigner(ApiProperties api) {
+		var creds = AwsBasicCredentials.create(api.aws().accessKey(), api.aws().accessKeySecret());
+		return S3Presigner.builder()
+			.region(Region.of(api.aws().region()))
+			.credentialsProvider(StaticCredentialsProvider.create(creds))
+			.serviceConfiguration(S3Configuration.builder().pathStyleAccessEnabled(true).build())
+			.build();
+	}
+
 	@Bean
 	InitializingBean validateS3(ApiProperties properties, S3Client s3) {
 		return () -> {
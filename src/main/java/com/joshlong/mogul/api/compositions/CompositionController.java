@@ -1,7 +1,9 @@
 package com.joshlong.mogul.api.compositions;
 
+import com.joshlong.mogul.api.managedfiles.ManagedFile;
 import com.joshlong.mogul.api.managedfiles.ManagedFileService;
 import com.joshlong.mogul.api.mogul.MogulService;
+import org.dataloader.DataLoader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.graphql.data.method.annotation.Argument;
@@ -11,6 +13,8 @@ import org.springframework.graphql.data.method.annotation.SchemaMapping;
 import org.springframework.stereotype.Controller;
 import org.springframework.util.StringUtils;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * handles looking up details associated with all compositions.
  */
@@ -35,13 +39,19 @@ class CompositionController {
 	private final static String NLS = System.lineSeparator() + System.lineSeparator();
 
 	@SchemaMapping
-	String embedding(Attachment attachment) {
-		var managedFile = attachment.managedFile();
-		var publicUrl = this.managedFileService.getPublicUrlForManagedFile(managedFile.id());
-		this.log.trace("got the public url for managed file # {} as {}", managedFile.id(), publicUrl);
-		var embedding = "![%s](%s)".formatted(StringUtils.hasText(attachment.caption()) ? attachment.caption() : "",
-				publicUrl);
-		return NLS + embedding + NLS;
+	CompletableFuture<ManagedFile> managedFile(Attachment attachment, DataLoader<Long, ManagedFile> managedFiles) {
+		return managedFiles.load(attachment.managedFile().id());
+	}
+
+	@SchemaMapping
+	CompletableFuture<String> embedding(Attachment attachment, DataLoader<Long, ManagedFile> managedFiles) {
+		return managedFiles.load(attachment.managedFile().id()).thenApply(managedFile -> {
+			var publicUrl = this.managedFileService.getPublicUrlForManagedFile(managedFile);
+			this.log.trace("got the public url for managed file # {} as {}", managedFile.id(), publicUrl);
+			var caption = StringUtils.hasText(attachment.caption()) ? attachment.caption() : "";
+			var embedding = "![%s](%s)".formatted(caption, publicUrl);
+			return NLS + embedding + NLS;
+		});
 	}
 
 	@QueryMapping
@@ -1,5 +1,8 @@
 package com.joshlong.mogul.api.compositions;
 
+import java.util.Collection;
+import java.util.Map;
+
 public interface CompositionService {
 
 	/**
@@ -13,6 +16,15 @@ public interface CompositionService {
 
 	Composition getCompositionById(Long id);
 
+	/**
+	 * looks up, all at once and without creating anything, the compositions for the field
+	 * of each of the payloads with the given {@link Composable#compositionKey() keys}. the
+	 * result is keyed the same way, and leaves out payloads that don't have a composition
+	 * yet.
+	 */
+	Map<Long, Composition> getCompositionsByKeys(Class<? extends Composable> payloadClass,
+			Collection<Long> compositionKeys, String field);
+
 	boolean deleteCompositionAttachment(Long id);
 
 }
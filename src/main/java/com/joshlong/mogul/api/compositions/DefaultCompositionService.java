@@ -11,7 +11,11 @@ import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * helps to manage the lifecycle and entities associated with a given composition, which
@@ -51,6 +55,36 @@ class DefaultCompositionService implements CompositionService {
 			.single();
 	}
 
+	@Override
+	public Map<Long, Composition> getCompositionsByKeys(Class<? extends Composable> payloadClass,
+			Collection<Long> compositionKeys, String field) {
+		var keys = new HashMap<String, Long>();
+		for (var compositionKey : compositionKeys)
+			keys.put(JsonUtils.write(compositionKey), compositionKey);
+		if (keys.isEmpty())
+			return new HashMap<>();
+		var clazz = payloadClass.getName();
+		// all the attachments for all the compositions, in one go
+		var attachments = new HashMap<Long, List<Attachment>>();
+		JdbcUtils.queryByKeys(this.db, """
+				select ca.* from composition_attachment ca
+				join composition c on c.id = ca.composition_id
+				where c.payload_class = ? and c.field = ? and c.payload = any(?::text[])
+				""", keys.keySet(), rs -> {
+			var attachment = this.attachmentRowMapper.mapRow(rs, 0);
+			attachments.computeIfAbsent(rs.getLong("composition_id"), k -> new ArrayList<>()).add(attachment);
+		}, clazz, field);
+		var compositionRowMapper = new CompositionRowMapper(id -> attachments.getOrDefault(id, List.of()));
+		var compositions = new HashMap<Long, Composition>();
+		JdbcUtils.queryByKeys(this.db,
+				"select * from composition where payload_class = ? and field = ? and payload = any(?::text[])",
+				keys.keySet(), rs -> {
+					var composition = compositionRowMapper.mapRow(rs, 0);
+					compositions.put(keys.get(composition.payload()), composition);
+				}, clazz, field);
+		return compositions;
+	}
+
 	@Override
 	public boolean deleteCompositionAttachment(Long id) {
 		var attachmentById = this.getAttachmentById(id);
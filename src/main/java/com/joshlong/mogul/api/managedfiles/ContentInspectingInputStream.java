@@ -0,0 +1,143 @@
+package com.joshlong.mogul.api.managedfiles;
+
+import org.springframework.http.MediaType;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * learns what it can about content as it streams past: how many bytes there were, their
+ * SHA-256 hash, and, from the first few bytes, what kind of media it is. nothing is kept
+ * around but the first few bytes, so it works for content of any size.
+ */
+class ContentInspectingInputStream extends FilterInputStream {
+
+	private static final int SNIFF_LENGTH = 16;
+
+	private final MessageDigest digest;
+
+	private final MediaType sniffedMediaType;
+
+	private long size;
+
+	ContentInspectingInputStream(InputStream in) throws IOException {
+		super(new BufferedInputStream(in));
+		try {
+			this.digest = MessageDigest.getInstance("SHA-256");
+		} //
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		this.in.mark(SNIFF_LENGTH);
+		var head = this.in.readNBytes(SNIFF_LENGTH);
+		this.in.reset();
+		this.sniffedMediaType = sniff(head);
+	}
+
+	/**
+	 * the media type suggested by the first few bytes, or null if they weren't
+	 * recognized.
+	 */
+	MediaType sniffedMediaType() {
+		return this.sniffedMediaType;
+	}
+
+	/**
+	 * the number of bytes read so far.
+	 */
+	long size() {
+		return this.size;
+	}
+
+	/**
+	 * the hex-encoded SHA-256 hash of the bytes read so far. only call this once the
+	 * stream has been read to the end.
+	 */
+	String hash() {
+		return HexFormat.of().formatHex(this.digest.digest());
+	}
+
+	@Override
+	public int read() throws IOException {
+		var b = this.in.read();
+		if (b != -1) {
+			this.digest.update((byte) b);
+			this.size += 1;
+		}
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		var count = this.in.read(b, off, len);
+		if (count > 0) {
+			this.digest.update(b, off, count);
+			this.size += count;
+		}
+		return count;
+	}
+
+	// skipped bytes still have to be counted and hashed
+	@Override
+	public long skip(long n) throws IOException {
+		var buffer = new byte[(int) Math.min(8192, Math.max(0, n))];
+		var skipped = 0L;
+		while (skipped < n) {
+			var count = this.read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+			if (count == -1)
+				break;
+			skipped += count;
+		}
+		return skipped;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	@Override
+	public synchronized void mark(int readlimit) {
+	}
+
+	@Override
+	public synchronized void reset() throws IOException {
+		throw new IOException("mark/reset not supported");
+	}
+
+	static MediaType sniff(byte[] head) {
+		if (startsWith(head, 0, 0x89, 'P', 'N', 'G'))
+			return CommonMediaTypes.PNG;
+		if (startsWith(head, 0, 0xff, 0xd8, 0xff))
+			return CommonMediaTypes.JPG;
+		if (startsWith(head, 0, 'G', 'I', 'F', '8'))
+			return CommonMediaTypes.GIF;
+		if (startsWith(head, 0, 'R', 'I', 'F', 'F') && startsWith(head, 8, 'W', 'E', 'B', 'P'))
+			return CommonMediaTypes.WEBP;
+		if (startsWith(head, 0, 'R', 'I', 'F', 'F') && startsWith(head, 8, 'W', 'A', 'V', 'E'))
+			return CommonMediaTypes.WAV;
+		if (startsWith(head, 0, 'I', 'D', '3'))
+			return CommonMediaTypes.MP3;
+		// an MPEG audio frame starts with eleven set bits
+		if (head.length >= 2 && (head[0] & 0xff) == 0xff && (head[1] & 0xe0) == 0xe0)
+			return CommonMediaTypes.MP3;
+		if (startsWith(head, 4, 'f', 't', 'y', 'p'))
+			return CommonMediaTypes.MP4;
+		return null;
+	}
+
+	private static boolean startsWith(byte[] head, int offset, int... expected) {
+		if (head.length < offset + expected.length)
+			return false;
+		for (var i = 0; i < expected.length; i++)
+			if ((head[offset + i] & 0xff) != expected[i])
+				return false;
+		return true;
+	}
+
+}
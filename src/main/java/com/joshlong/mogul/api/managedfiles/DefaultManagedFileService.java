@@ -1,13 +1,21 @@
 package com.joshlong.mogul.api.managedfiles;
 
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
 import com.joshlong.mogul.api.ApiProperties;
+import com.joshlong.mogul.api.utils.DiskCache;
 import com.joshlong.mogul.api.utils.FileUtils;
+import com.joshlong.mogul.api.utils.JdbcUtils;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.InputStreamResource;
 import org.springframework.core.io.Resource;
 import org.springframework.http.MediaType;
 import org.springframework.jdbc.core.simple.JdbcClient;
@@ -18,20 +26,27 @@ import org.springframework.transaction.support.TransactionSynchronization;
 import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.Assert;
-import org.springframework.util.FileCopyUtils;
 import org.springframework.util.StringUtils;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
+import java.nio.file.NoSuchFileException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
@@ -40,13 +55,22 @@ class DefaultManagedFileServiceConfiguration {
 
 	private final Logger log = LoggerFactory.getLogger(getClass());
 
+	@Bean
+	ManagedFileContentCache managedFileContentCache(ApiProperties properties, MeterRegistry registry) {
+		var cache = properties.managedFiles().cache();
+		return new ManagedFileContentCache(
+				new DiskCache<>("mogul.managedfiles.cache", cache.root(), cache.maximumSize(), registry));
+	}
+
 	@Bean
 	DefaultManagedFileService defaultManagedFileService(ApplicationEventPublisher publisher,
-			TransactionTemplate transactionTemplate, Storage storage, JdbcClient db, ApiProperties properties) {
+			TransactionTemplate transactionTemplate, Storage storage, JdbcClient db, ApiProperties properties,
+			ManagedFileContentCache contentCache, MeterRegistry registry) {
 		var bucket = properties.managedFiles().s3().bucket();
 
 		return new DefaultManagedFileService(bucket, db, storage, publisher, transactionTemplate,
-				properties.aws().cloudfront().domain());
+				properties.aws().cloudfront().domain(), contentCache, properties.managedFiles().cache().rows(),
+				properties.managedFiles().visibility(), registry);
 	}
 
 }
@@ -68,10 +92,15 @@ class DefaultManagedFileServiceConfiguration {
  * right before committing , we do one big query for all the managed files and then give
  * the data to each placeholder object, fleshing them out, in effect.
  * <p>
+ * the placeholders live in a cache shared by every thread, bounded in size and in age, so
+ * a managed file hydrated once is served from memory until it expires or is written. a
+ * placeholder that somebody touches before its transaction finishes hydrates itself,
+ * once, no matter how many threads are waiting on it.
+ * <p>
  * warning: do <EM>NOT</EM> make the entire class {@link Transactional}!
  */
 
-class DefaultManagedFileService implements TransactionSynchronization, ManagedFileService {
+class DefaultManagedFileService implements TransactionSynchronization, ManagedFileService, AutoCloseable {
 
 	private final String bucket;
 
@@ -79,7 +108,7 @@ class DefaultManagedFileService implements TransactionSynchronization, ManagedFi
 
 	private final ManagedFileDeletionRequestRowMapper managedFileDeletionRequestRowMapper = new ManagedFileDeletionRequestRowMapper();
 
-	private final ThreadLocal<Map<Long, ManagedFile>> managedFiles = new ThreadLocal<>();
+	private final LoadingCache<Long, ManagedFile> managedFiles;
 
 	private final JdbcClient db;
 
@@ -91,9 +120,49 @@ class DefaultManagedFileService implements TransactionSynchronization, ManagedFi
 
 	private final URI cloudfrontDomain;
 
+	private final ManagedFileContentCache contentCache;
+
+	// one instance shared by every managed file, rather than a new lambda for each
+	private final Consumer<ManagedFile> hydration = this::hydrate;
+
+	private final VisibilitySynchronizer visibilitySynchronizer;
+
+	private final int visibilityBatchSize;
+
+	// where the last look for outdated visible copies left off
+	private final AtomicLong visibilityCursor = new AtomicLong();
+
 	DefaultManagedFileService(String bucket, JdbcClient db, Storage storage, ApplicationEventPublisher publisher,
-			TransactionTemplate transactionTemplate, URI cloudfrontDomain) {
+			TransactionTemplate transactionTemplate, URI cloudfrontDomain, ManagedFileContentCache contentCache,
+			ApiProperties.ManagedFiles.Cache.Rows rows, ApiProperties.ManagedFiles.Visibility visibility,
+			MeterRegistry registry) {
 		this.bucket = bucket;
+		this.visibilitySynchronizer = new VisibilitySynchronizer(visibility.concurrency(),
+				this::synchronizeVisibility);
+		this.visibilityBatchSize = visibility.batchSize();
+		// our own writes evict straight away, but other nodes' writes are only noticed when
+		// an entry is revalidated: until then, whoever asks gets the entry they already had
+		this.managedFiles = Caffeine.newBuilder()
+			.maximumSize(rows.maximumSize())
+			.expireAfterWrite(rows.expireAfterWrite())
+			.refreshAfterWrite(rows.revalidateAfter())
+			.executor(Executors.newVirtualThreadPerTaskExecutor())
+			.recordStats()
+			.build(new CacheLoader<>() {
+
+				@Override
+				public ManagedFile load(Long managedFileId) {
+					return new ManagedFile(managedFileId, hydration);
+				}
+
+				@Override
+				public ManagedFile reload(Long managedFileId, ManagedFile managedFile) {
+					return revalidate(managedFile);
+				}
+
+			});
+		CaffeineCacheMetrics.monitor(registry, this.managedFiles, "managedFiles");
+		this.contentCache = contentCache;
 		this.db = db;
 		this.cloudfrontDomain = cloudfrontDomain;
 		this.storage = storage;
@@ -106,6 +175,11 @@ class DefaultManagedFileService implements TransactionSynchronization, ManagedFi
 
 	}
 
+	@Override
+	public void close() {
+		this.visibilitySynchronizer.close();
+	}
+
 	static String visibleBucketFor(String bucket) {
 		return bucket + "-visible";
 	}
@@ -117,15 +191,19 @@ class DefaultManagedFileService implements TransactionSynchronization, ManagedFi
 
 	@Override
 	public String getPrivateUrlForManagedFile(Long managedFileId) {
-		var managedFile = this.getManagedFile(managedFileId);
-		return "/managedfiles/" + managedFile.id();
+		return "/managedfiles/" + managedFileId;
 	}
 
 	@Override
 	public String getPublicUrlForManagedFile(Long managedFileId) {
-		var managedFile = this.getManagedFile(managedFileId);
+		return this.getPublicUrlForManagedFile(this.getManagedFile(managedFileId));
+	}
+
+	@Override
+	public String getPublicUrlForManagedFile(ManagedFile managedFile) {
 		var url = (String) null;
-		if (managedFile.visible()) {
+		// there's nothing to link to until the visible copy has been made
+		if (managedFile.visible() && managedFile.visibleEtag() != null) {
 			url = this.cloudfrontDomain.toString() + "/"
 					+ this.fqn(managedFile.folder(), managedFile.storageFilename());
 			this.log.debug("getting public url for managed file [{}]: {}", managedFile.id(), url);
@@ -134,32 +212,162 @@ class DefaultManagedFileService implements TransactionSynchronization, ManagedFi
 	}
 
 	private ManagedFile forceReadManagedFile(Long managedFileId) {
+		this.evict(managedFileId);
 		var managedFile = this.getManagedFile(managedFileId);
-		this.managedFiles.get().remove(managedFileId);
 		managedFile.contentType();// triggers the rehydration side effect. yuck.
 		return managedFile;
 	}
 
+	/*
+	 * forgets the cached managed file now and, if there's a transaction, once more when
+	 * it finishes, in case somebody cached the old state again in the meantime.
+	 */
+	private void evict(Long managedFileId) {
+		this.evict(List.of(managedFileId));
+	}
+
+	private void evict(Collection<Long> managedFileIds) {
+		this.managedFiles.invalidateAll(managedFileIds);
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCompletion(int status) {
+					managedFiles.invalidateAll(managedFileIds);
+				}
+			});
+		}
+	}
+
 	// meant to make sure we've synchronized the file write
 	@ApplicationModuleListener
 	void onManagedFileUpdated(ManagedFileUpdatedEvent event) {
 		var managedFile = event.managedFile();
-		this.ensureVisibility(managedFile);
+		this.contentCache.invalidate(managedFile.id());
+		this.evictIfStale(managedFile);
+		this.visibilitySynchronizer.request(managedFile.id());
 	}
 
-	private void ensureVisibility(ManagedFile managedFile) {
+	@ApplicationModuleListener
+	void onManagedFilesDeleted(ManagedFilesDeletedEvent event) {
+		for (var managedFileId : event.managedFileIds())
+			this.contentCache.invalidate(managedFileId);
+		this.managedFiles.invalidateAll(event.managedFileIds());
+	}
+
+	/*
+	 * keeps the cached managed file for as long as its row has the same version, and
+	 * starts over with a new one once it's changed. returning null forgets a managed file
+	 * whose row is gone.
+	 */
+	private ManagedFile revalidate(ManagedFile managedFile) {
+		if (!managedFile.initialized())
+			return managedFile;
+		var version = this.db.sql("select version from managed_file where id = ?")
+			.param(managedFile.id())
+			.query(Long.class)
+			.optional();
+		if (version.isEmpty())
+			return null;
+		if (version.get() == managedFile.version())
+			return managedFile;
+		this.log.debug("managed file #{} changed elsewhere, going from version {} to {}", managedFile.id(),
+				managedFile.version(), version.get());
+		return new ManagedFile(managedFile.id(), this.hydration);
+	}
+
+	/*
+	 * the event may well carry the very instance we've cached, or one that's no newer, in
+	 * which case what we have is current
+	 */
+	private void evictIfStale(ManagedFile managedFile) {
+		var cached = this.managedFiles.policy().getIfPresentQuietly(managedFile.id());
+		if (cached == null || cached == managedFile)
+			return;
+		if (cached.initialized() && managedFile.initialized() && cached.version() >= managedFile.version())
+			return;
+		this.managedFiles.invalidate(managedFile.id());
+	}
+
+	/*
+	 * asks for the visible copy of the managed file to be brought up to date in the
+	 * background, once the current transaction (if any) has committed, so that the
+	 * synchronizer sees what we've written.
+	 */
+	private void ensureVisibility(Long managedFileId) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCommit() {
+					visibilitySynchronizer.request(managedFileId);
+				}
+			});
+		} //
+		else {
+			this.visibilitySynchronizer.request(managedFileId);
+		}
+	}
+
+	/*
+	 * the visible copies that are out of date, according to the database, whether because
+	 * a synchronization failed or because the node that was going to do it went away
+	 * before it could. they're asked for again, and the synchronizer takes it from there.
+	 * every node does this, so a file may now and then be synchronized twice, which is
+	 * harmless. each look carries on from where the last one left off, so files that keep
+	 * failing can't crowd out the rest.
+	 */
+	int synchronizeOutdatedVisibility() {
+		var managedFileIds = this.db.sql("""
+				select id from managed_file
+				where id > ? and (
+				   (visible = true and written = true and visible_etag is distinct from coalesce(etag, ''))
+				   or (visible = false and visible_etag is not null))
+				order by id
+				limit ?
+				""")
+			.params(this.visibilityCursor.get(), this.visibilityBatchSize)
+			.query(Long.class)
+			.list();
+		this.visibilityCursor.set(managedFileIds.size() < this.visibilityBatchSize ? 0 : managedFileIds.getLast());
+		for (var managedFileId : managedFileIds)
+			this.visibilitySynchronizer.request(managedFileId);
+		return managedFileIds.size();
+	}
+
+	/*
+	 * runs on the visibility synchronizer. it reads the managed file straight from the
+	 * database, since the cache may lag behind, and only copies the object if the
+	 * visible copy is missing or was taken from a different version of the contents.
+	 */
+	private void synchronizeVisibility(Long managedFileId) {
+		var managedFile = new ManagedFile(managedFileId, this.hydration);
+		this.hydrate(managedFile);
+		if (!managedFile.initialized()) {
+			this.log.debug("managed file #{} no longer exists, so there's no visibility to synchronize",
+					managedFileId);
+			return;
+		}
 		var visibleBucket = managedFile.visibleBucket();
-		var folder = managedFile.folder();
-		var fn = managedFile.storageFilename();
-		var fqn = this.fqn(folder, fn);
+		var fqn = this.fqn(managedFile.folder(), managedFile.storageFilename());
 		var bucket = managedFile.bucket();
+		var etag = managedFile.etag();
 		if (managedFile.visible()) {
-			this.log.debug("inside ensureVisibility(ManagedFile(# {} ))", managedFile.id());
+			this.log.debug("inside synchronizeVisibility(ManagedFile(# {} ))", managedFile.id());
+			if (!managedFile.written()) {
+				this.log.debug("managed file #{} hasn't been written yet, so there's nothing to copy", managedFileId);
+				return;
+			}
+			if (etag != null && etag.equals(managedFile.visibleEtag())) {
+				this.log.debug("the visible copy of managed file #{} is already up to date", managedFileId);
+				return;
+			}
 			if (this.storage.exists(bucket, fqn)) {
 				this.log.debug("this file {}/{} (#{}) exists", bucket, fqn, managedFile.id());
 				var newContentType = StringUtils.hasText(managedFile.contentType())
 						? MediaType.parseMediaType(managedFile.contentType()) : null;
 				this.storage.copy(bucket, visibleBucket, fqn, newContentType);
+				this.db.sql("update managed_file set visible_etag = ? where id = ?")
+					.params(etag == null ? "" : etag, managedFileId)
+					.update();
 				this.log.debug("copied {}/{} (#{}) to {}/{} ", bucket, fqn, managedFile.id(), visibleBucket, fqn);
 			} //
 			else {
@@ -167,63 +375,332 @@ class DefaultManagedFileService implements TransactionSynchronization, ManagedFi
 				this.log.warn("the file {} does not exist and so can't be synced over!", fqn(bucket, fqn));
 			}
 		} //
-		else {
-			this.storage.remove(visibleBucket, fqn);
+		else if (managedFile.visibleEtag() != null) {
+			// the visible copy is shared by every visible managed file with the same object
+			var sharedVisibly = this.db.sql("""
+					select count(*) from managed_file
+					where bucket = ? and folder = ? and storage_filename = ? and visible = true and id <> ?
+					""")
+				.params(bucket, managedFile.folder(), managedFile.storageFilename(), managedFileId)
+				.query(Long.class)
+				.single() > 0;
+			if (!sharedVisibly)
+				this.storage.remove(visibleBucket, fqn);
+			this.db.sql("update managed_file set visible_etag = null where id = ?").params(managedFileId).update();
+			this.log.debug("removed {}/{} (#{})", visibleBucket, fqn, managedFile.id());
 		}
+		this.managedFiles.invalidate(managedFileId);
 	}
 
+	/*
+	 * a file on the local disk is hashed before anything is uploaded, so that we can skip
+	 * the upload altogether when the managed file already has those contents, or when
+	 * another of the mogul's managed files does and we can share its object.
+	 */
 	@Override
 	public void write(Long managedFileId, String filename, MediaType mediaType, Resource resource) {
 		var managedFile = this.forceReadManagedFile(managedFileId);
-		var bucket = managedFile.bucket();
-		var folder = managedFile.folder();
-		this.storage.write(bucket, this.fqn(folder, managedFile.storageFilename()), resource, mediaType);
-		var clientMediaType = mediaType == null ? CommonMediaTypes.BINARY : mediaType;
-		this.db.sql("update managed_file set filename =?, content_type =? , written = true , size =? where id=?")
-			.params(filename, clientMediaType.toString(), contentLength(resource), managedFileId)
-			.update();
+		var contentType = (mediaType == null ? CommonMediaTypes.BINARY : mediaType).toString();
+		var contentHash = resource.isFile() ? this.hash(resource) : null;
+		if (contentHash != null && managedFile.written() && contentHash.equals(managedFile.contentHash())) {
+			this.written(managedFile, managedFile.folder(), managedFile.storageFilename(), filename, contentType,
+					managedFile.size(), managedFile.etag(), contentHash);
+			return;
+		}
+		if (contentHash != null) {
+			var twin = this.findManagedFileWithContents(managedFile, contentHash);
+			if (twin != null && this.share(managedFile, twin, filename, contentType, contentHash) != null) {
+				this.log.debug("managed file #{} has the same contents as managed file #{}, so it shares its object",
+						managedFileId, twin.id());
+				return;
+			}
+		}
+		var storageFilename = this.exclusiveStorageFilename(managedFile);
+		var etag = this.store(managedFile, storageFilename, resource, mediaType);
+		this.written(managedFile, managedFile.folder(), storageFilename, filename, contentType,
+				contentLength(resource), etag, contentHash);
+	}
+
+	/*
+	 * the content goes straight from the stream to storage. we learn its size, hash, and
+	 * (if the caller doesn't know) media type as it passes through, instead of from a copy
+	 * on disk.
+	 */
+	@Override
+	public void write(Long managedFileId, String filename, MediaType mediaType, InputStream content) {
+		var managedFile = this.forceReadManagedFile(managedFileId);
+		try (var inspecting = new ContentInspectingInputStream(content)) {
+			var resolvedMediaType = mediaType != null ? mediaType : this.guess(inspecting, filename);
+			var storageFilename = this.exclusiveStorageFilename(managedFile);
+			var etag = this.store(managedFile, storageFilename, new InputStreamResource(inspecting),
+					resolvedMediaType);
+			var contentHash = inspecting.hash();
+			this.log.debug("streamed {} bytes with the SHA-256 hash [{}] into managed file #{}", inspecting.size(),
+					contentHash, managedFileId);
+			this.written(managedFile, managedFile.folder(), storageFilename, filename, resolvedMediaType.toString(),
+					inspecting.size(), etag, contentHash);
+		} //
+		catch (IOException e) {
+			throw new RuntimeException("could not write managed file #" + managedFileId, e);
+		}
+	}
+
+	private MediaType guess(ContentInspectingInputStream content, String filename) {
+		if (content.sniffedMediaType() != null)
+			return content.sniffedMediaType();
+		return StringUtils.hasText(filename) ? CommonMediaTypes.guess(new FileSystemResource(filename))
+				: CommonMediaTypes.BINARY;
+	}
+
+	private String hash(Resource resource) {
+		try (var inspecting = new ContentInspectingInputStream(resource.getInputStream())) {
+			inspecting.transferTo(OutputStream.nullOutputStream());
+			return inspecting.hash();
+		} //
+		catch (IOException e) {
+			throw new RuntimeException("could not hash [" + resource.getDescription() + "]", e);
+		}
+	}
+
+	/*
+	 * another written managed file, belonging to the same mogul, with exactly these
+	 * contents, whose object isn't being overwritten.
+	 */
+	private ManagedFile findManagedFileWithContents(ManagedFile managedFile, String contentHash) {
+		var twinId = this.db.sql("""
+				select id from managed_file
+				where mogul = ? and bucket = ? and content_hash = ? and written = true and overwriting = false
+				and id <> ?
+				order by id limit 1
+				""")
+			.params(managedFile.mogulId(), managedFile.bucket(), contentHash, managedFile.id())
+			.query(Long.class)
+			.optional()
+			.orElse(null);
+		return twinId == null ? null : this.forceReadManagedFile(twinId);
+	}
+
+	/*
+	 * points the managed file at its twin's object. the managed files that refer to the
+	 * object are locked first, and the twin is checked again, so it only happens if the
+	 * twin still has those contents and nobody is overwriting the object, and so that the
+	 * deletion engine, which only removes objects that nobody refers to, can't remove it
+	 * in the meantime. returns null if it didn't happen.
+	 */
+	private ManagedFile share(ManagedFile managedFile, ManagedFile twin, String filename, String contentType,
+			String contentHash) {
+		return this.transactionTemplate.execute(tx -> {
+			this.lockReferences(twin.bucket(), twin.folder(), twin.storageFilename());
+			var shareable = this.db.sql("""
+					select count(*) filter (where id = ? and written = true and content_hash = ?) = 1
+					   and count(*) filter (where overwriting = true) = 0
+					from managed_file
+					where bucket = ? and folder = ? and storage_filename = ?
+					""")
+				.params(twin.id(), contentHash, twin.bucket(), twin.folder(), twin.storageFilename())
+				.query(Boolean.class)
+				.single();
+			if (!shareable)
+				return null;
+			return this.written(managedFile, twin.folder(), twin.storageFilename(), filename, contentType,
+					twin.size(), twin.etag(), contentHash);
+		});
+	}
+
+	/*
+	 * the object to write new contents to. if the managed file shares its object with
+	 * others, it gets one of its own, since the others' contents aren't changing.
+	 * otherwise it's marked as overwriting its object, under the same locks that sharing
+	 * an object takes, so that nobody starts sharing the object until the new contents
+	 * have been written.
+	 */
+	private String exclusiveStorageFilename(ManagedFile managedFile) {
+		return this.transactionTemplate.execute(tx -> {
+			var references = this.lockReferences(managedFile.bucket(), managedFile.folder(),
+					managedFile.storageFilename());
+			if (!references.equals(List.of(managedFile.id())))
+				return UUID.randomUUID().toString();
+			this.db.sql("update managed_file set overwriting = true where id = ?").params(managedFile.id()).update();
+			return managedFile.storageFilename();
+		});
+	}
+
+	/* the managed files that refer to the object, which stay that way until we commit */
+	private List<Long> lockReferences(String bucket, String folder, String storageFilename) {
+		return this.db.sql("""
+				select id from managed_file
+				where bucket = ? and folder = ? and storage_filename = ?
+				order by id
+				for update
+				""")
+			.params(bucket, folder, storageFilename)
+			.query(Long.class)
+			.list();
+	}
+
+	/* an overwrite that fails leaves the object as it was, so it may be shared again */
+	private String store(ManagedFile managedFile, String storageFilename, Resource resource, MediaType mediaType) {
+		try {
+			return this.storage.write(managedFile.bucket(), this.fqn(managedFile.folder(), storageFilename), resource,
+					mediaType);
+		} //
+		catch (RuntimeException exception) {
+			if (storageFilename.equals(managedFile.storageFilename()))
+				this.db.sql("update managed_file set overwriting = false where id = ?")
+					.params(managedFile.id())
+					.update();
+			throw exception;
+		}
+	}
+
+	/*
+	 * records the new contents and lets everybody know, unless the contents are the same
+	 * as before. if the managed file has moved to another object, the old one is queued for
+	 * deletion, which only happens once nobody refers to it. the request and the move are
+	 * committed together, under the lock on the old object's references, so the deletion
+	 * engine never sees the request while the managed file still refers to the object.
+	 */
+	private ManagedFile written(ManagedFile managedFile, String folder, String storageFilename, String filename,
+			String contentType, long size, String etag, String contentHash) {
+		var managedFileId = managedFile.id();
+		var moved = !folder.equals(managedFile.folder()) || !storageFilename.equals(managedFile.storageFilename());
+		if (!moved && managedFile.written() && contentHash != null && contentHash.equals(managedFile.contentHash())) {
+			this.log.debug("managed file #{} already has these contents, so there's nothing to announce",
+					managedFileId);
+			this.db.sql("update managed_file set filename = ?, content_type = ?, overwriting = false where id = ?")
+				.params(filename, contentType, managedFileId)
+				.update();
+			return this.forceReadManagedFile(managedFileId);
+		}
+		this.contentCache.invalidate(managedFileId);
+		this.transactionTemplate.execute(tx -> {
+			if (moved) {
+				this.lockReferences(managedFile.bucket(), managedFile.folder(), managedFile.storageFilename());
+				this.requestDeletion(managedFile);
+			}
+			this.db.sql("""
+					update managed_file set folder = ?, storage_filename = ?, filename = ?, content_type = ?,
+					written = true, overwriting = false, size = ?, etag = ?, content_hash = ?, updated = now(),
+					visible_etag = case when ? then null else visible_etag end
+					where id = ?
+					""")
+				.params(folder, storageFilename, filename, contentType, size, etag, contentHash, moved,
+						managedFileId)
+				.update();
+			return null;
+		});
+		return this.updated(managedFileId);
+	}
+
+	private ManagedFile updated(Long managedFileId) {
 		var freshManagedFile = this.forceReadManagedFile(managedFileId);
 		this.transactionTemplate.execute(tx -> {
 			this.publisher.publishEvent(new ManagedFileUpdatedEvent(freshManagedFile));
 			return null;
 		});
+		return freshManagedFile;
+	}
+
+	/*
+	 * S3 won't tell us the SHA-256 of a direct upload, so there's nothing to deduplicate
+	 * against. every upload goes to an object of its own, and the managed file is left
+	 * alone until the upload is completed, so if the upload can't be started, fails, or is
+	 * abandoned, the managed file still has the contents it had.
+	 */
+	@Override
+	public ManagedFileUpload startManagedFileUpload(Long managedFileId, MediaType mediaType, long size) {
+		var managedFile = this.forceReadManagedFile(managedFileId);
+		var storageFilename = UUID.randomUUID().toString();
+		var key = this.fqn(managedFile.folder(), storageFilename);
+		var upload = this.storage.startDirectUpload(managedFile.bucket(), key, mediaType, size);
+		this.db.sql("insert into managed_file_upload (upload_id, managed_file, storage_filename) values (?, ?, ?)")
+			.params(upload.uploadId(), managedFileId, storageFilename)
+			.update();
+		var urls = upload.partUrls().stream().map(URI::toString).toList();
+		return new ManagedFileUpload(managedFileId, upload.uploadId(), upload.partSize(), urls);
+	}
+
+	/*
+	 * moving the managed file over to the uploaded object and asking for its old object
+	 * to be deleted happen together, or not at all.
+	 */
+	@Override
+	public ManagedFile completeManagedFileUpload(Long managedFileId, String uploadId, String filename,
+			List<String> partETags) {
+		var managedFile = this.forceReadManagedFile(managedFileId);
+		var storageFilename = this.managedFileUploadStorageFilename(managedFileId, uploadId);
+		var key = this.fqn(managedFile.folder(), storageFilename);
+		var stored = this.storage.completeDirectUpload(managedFile.bucket(), key, uploadId, partETags);
+		var contentType = StringUtils.hasText(stored.contentType()) ? stored.contentType()
+				: CommonMediaTypes.BINARY.toString();
+		return this.transactionTemplate.execute(tx -> {
+			this.db.sql("delete from managed_file_upload where upload_id = ?").params(uploadId).update();
+			var current = this.forceReadManagedFile(managedFileId);
+			return this.written(current, current.folder(), storageFilename, filename, contentType, stored.size(),
+					stored.etag(), null);
+		});
+	}
+
+	@Override
+	public void abortManagedFileUpload(Long managedFileId, String uploadId) {
+		var managedFile = this.forceReadManagedFile(managedFileId);
+		var storageFilename = this.managedFileUploadStorageFilename(managedFileId, uploadId);
+		this.storage.abortDirectUpload(managedFile.bucket(), this.fqn(managedFile.folder(), storageFilename), uploadId);
+		this.db.sql("delete from managed_file_upload where upload_id = ?").params(uploadId).update();
+	}
+
+	private String managedFileUploadStorageFilename(Long managedFileId, String uploadId) {
+		return this.db.sql("select storage_filename from managed_file_upload where upload_id = ? and managed_file = ?")
+			.params(uploadId, managedFileId)
+			.query(String.class)
+			.optional()
+			.orElseThrow(() -> new IllegalStateException(
+					"there is no upload [" + uploadId + "] for managed file #" + managedFileId));
 	}
 
 	@Override
 	public void setManagedFileVisibility(Long managedFileId, boolean publicAccess) {
 		this.db.sql("update managed_file set visible = ? where id = ?").params(publicAccess, managedFileId).update();
-		this.ensureVisibility(this.forceReadManagedFile(managedFileId));
+		this.evict(managedFileId);
+		this.ensureVisibility(managedFileId);
 	}
 
 	/**
-	 * this one pulls down a {@link ManagedFile managed file}'s contents from S3, and then
-	 * re-writes it, allowing us to synchronize our view of the S3 asset with the actual
-	 * state of the S3 object.
+	 * reconciles our view of a {@link ManagedFile managed file} with the object in
+	 * storage, using only the object's metadata. nobody hears about it unless something
+	 * actually changed.
 	 */
 	@Override
 	@Transactional
 	public void refreshManagedFile(Long managedFileId) {
-		var managedFile = this.getManagedFile(managedFileId);
-		var resource = this.read(managedFile.id());
-		var tmp = FileUtils.tempFileWithExtension();
-		try {
-			try (var in = resource.getInputStream(); var out = new FileOutputStream(tmp)) {
-				this.log.debug("starting download to local file [{}]", tmp.getAbsolutePath());
-				FileCopyUtils.copy(in, out);
-				this.log.debug("finished download to local file [{}]", tmp.getAbsolutePath());
-			} //
-			this.write(managedFile.id(), managedFile.filename(), CommonMediaTypes.MP3, tmp);
-		} //
-		catch (IOException e) {
-			throw new RuntimeException(
-					"could not refresh the file [" + tmp.getAbsolutePath() + "] for ManagedFile [" + managedFile + "]",
-					e);
-		} //
-		finally {
-			FileUtils.delete(tmp);
+		var managedFile = this.forceReadManagedFile(managedFileId);
+		var key = this.fqn(managedFile.folder(), managedFile.storageFilename());
+		var stored = this.storage.head(managedFile.bucket(), key);
+		if (stored == null) {
+			this.log.warn("there is no object for managed file #{} at {}, so there's nothing to refresh", managedFileId,
+					this.fqn(managedFile.bucket(), key));
+			return;
+		}
+		var contentType = StringUtils.hasText(stored.contentType()) ? stored.contentType()
+				: managedFile.contentType();
+		var unchanged = managedFile.written() && managedFile.size() == stored.size()
+				&& Objects.equals(managedFile.etag(), stored.etag())
+				&& Objects.equals(managedFile.contentType(), contentType);
+		if (unchanged) {
+			this.log.debug("managed file #{} is already up to date", managedFileId);
+			return;
 		}
-		var mf = this.getManagedFile(managedFileId);
-		this.log.debug("refreshed managed file {}", mf);
+		var lastModified = stored.lastModified() == null ? new Date() : Date.from(stored.lastModified());
+		this.contentCache.invalidate(managedFileId);
+		this.db.sql("""
+				update managed_file set content_type = ?, written = true, size = ?, updated = ?,
+				content_hash = case when etag is distinct from ? then null else content_hash end, etag = ?
+				where id = ?
+				""")
+			.params(contentType, stored.size(), lastModified, stored.etag(), stored.etag(), managedFileId)
+			.update();
+		this.updated(managedFileId);
+		this.log.debug("refreshed managed file #{}", managedFileId);
 	}
 
 	@Override
@@ -247,10 +724,17 @@ class DefaultManagedFileService implements TransactionSynchronization, ManagedFi
 		var managedFileDeletionRequest = this.getManagedFileDeletionRequest(managedFileDeletionRequestId);
 		Assert.notNull(managedFileDeletionRequest, "the managed file deletion request should not be null");
 		var fqn = this.fqn(managedFileDeletionRequest.folder(), managedFileDeletionRequest.storageFilename());
-		for (var bucket : new String[] { managedFileDeletionRequest.bucket(),
-				managedFileDeletionRequest.visibleBucket() }) {
-			this.storage.remove(bucket, fqn);
-		}
+		// the object may be shared with managed files that are still around
+		var references = this.db
+			.sql("select visible from managed_file where bucket = ? and folder = ? and storage_filename = ?")
+			.params(managedFileDeletionRequest.bucket(), managedFileDeletionRequest.folder(),
+					managedFileDeletionRequest.storageFilename())
+			.query(Boolean.class)
+			.list();
+		if (references.isEmpty())
+			this.storage.remove(managedFileDeletionRequest.bucket(), fqn);
+		if (!references.contains(true))
+			this.storage.remove(managedFileDeletionRequest.visibleBucket(), fqn);
 		this.db.sql(" update managed_file_deletion_request set deleted = true where id = ? ")
 			.param(managedFileDeletionRequestId)
 			.update();
@@ -259,10 +743,79 @@ class DefaultManagedFileService implements TransactionSynchronization, ManagedFi
 	@Override
 	@Transactional
 	public void deleteManagedFile(Long managedFileId) {
-		var managedFile = this.getManagedFile(managedFileId);
-		// very important that we do this part FIRST since the calls to mogulId will
-		// lazily trigger the loading of the managed_file, which will be deleted if we
-		// waited until after the next line
+		this.deleteManagedFiles(List.of(managedFileId));
+	}
+
+	@Override
+	@Transactional
+	public void deleteManagedFiles(Collection<Long> managedFileIds) {
+		var ids = managedFileIds.stream().filter(Objects::nonNull).collect(Collectors.toSet());
+		if (ids.isEmpty())
+			return;
+		var uploads = new ArrayList<PendingUpload>();
+		JdbcUtils.queryByIds(this.db, """
+				select mf.bucket, mf.folder, u.storage_filename, u.upload_id
+				from managed_file_upload u join managed_file mf on mf.id = u.managed_file
+				where u.managed_file = any(?::bigint[])
+				""", ids, rs -> {
+			uploads.add(new PendingUpload(rs.getString("bucket"),
+					this.fqn(rs.getString("folder"), rs.getString("storage_filename")), rs.getString("upload_id")));
+		});
+		JdbcUtils.updateByIds(this.db, "delete from managed_file_upload where managed_file = any(?::bigint[])", ids);
+		this.abortDirectUploads(uploads);
+		// the deletion requests are copied from the rows, so they have to come first
+		JdbcUtils.updateByIds(this.db, """
+				insert into managed_file_deletion_request (mogul, bucket, folder, filename, storage_filename)
+				select mf.mogul, mf.bucket, mf.folder, mf.filename, mf.storage_filename
+				from managed_file mf
+				where mf.id = any(?::bigint[])
+				""", ids);
+		var deleted = JdbcUtils.updateByIds(this.db, "delete from managed_file where id = any(?::bigint[])", ids);
+		this.evict(ids);
+		this.log.debug("deleted {} managed files", deleted);
+		this.publisher.publishEvent(new ManagedFilesDeletedEvent(ids));
+	}
+
+	/*
+	 * the direct uploads to managed files that are going away can never be completed, and
+	 * S3 keeps, and charges for, their parts until they're aborted. that happens once the
+	 * deletion has committed, so that a deletion that's rolled back leaves them alone.
+	 */
+	private void abortDirectUploads(List<PendingUpload> uploads) {
+		if (uploads.isEmpty())
+			return;
+		Runnable abort = () -> {
+			for (var upload : uploads) {
+				try {
+					this.storage.abortDirectUpload(upload.bucket(), upload.key(), upload.uploadId());
+				} //
+				catch (RuntimeException exception) {
+					this.log.warn("could not abort the direct upload [{}] to [{}]", upload.uploadId(), upload.key(),
+							exception);
+				}
+			}
+		};
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCommit() {
+					abort.run();
+				}
+			});
+		} //
+		else {
+			abort.run();
+		}
+	}
+
+	private record PendingUpload(String bucket, String key, String uploadId) {
+	}
+
+	/*
+	 * the object isn't necessarily going anywhere: the deletion engine leaves it alone for
+	 * as long as some other managed file refers to it.
+	 */
+	private void requestDeletion(ManagedFile managedFile) {
 		this.db.sql(
 				"insert into managed_file_deletion_request ( mogul , bucket, folder, filename ,storage_filename) values(?,?,?,?,?)")
 			.params(managedFile.mogulId(), //
@@ -272,8 +825,6 @@ class DefaultManagedFileService implements TransactionSynchronization, ManagedFi
 					managedFile.storageFilename() //
 			)
 			.update();
-		this.db.sql("delete from managed_file where id =?").param(managedFileId).update();
-		this.publisher.publishEvent(new ManagedFileDeletedEvent(managedFile));
 	}
 
 	private String fqn(String folder, String filename) {
@@ -290,6 +841,40 @@ class DefaultManagedFileService implements TransactionSynchronization, ManagedFi
 		return this.storage.read(bucket, fn);
 	}
 
+	@Override
+	public Resource read(Long managedFileId, String etag, long start, long end) {
+		var mf = this.transactionTemplate.execute(status -> this.getManagedFile(managedFileId));
+		var fn = this.fqn(mf.folder(), mf.storageFilename());
+		return this.storage.read(mf.bucket(), fn, start, end, etag);
+	}
+
+	/*
+	 * serves the download from the local content cache, filling it from S3 on a miss.
+	 * the destination is a hard link to the cached copy, so that even a long episode is
+	 * handed over without copying it again. callers may read, move, or delete it, but it's
+	 * read-only. if the cached copy is evicted before we can link it, we load it again.
+	 */
+	@Override
+	public File download(Long managedFileId, File destination) {
+		var mf = this.transactionTemplate.execute(status -> this.getManagedFile(managedFileId));
+		var fn = this.fqn(mf.folder(), mf.storageFilename());
+		for (var attempt = 1;; attempt++) {
+			var cached = this.contentCache.get(mf, file -> this.storage.download(mf.bucket(), fn, file));
+			try {
+				return FileUtils.link(cached, destination);
+			} //
+			catch (NoSuchFileException e) {
+				this.log.debug("the cached copy of managed file #{} was evicted before it could be linked", mf.id());
+				this.contentCache.invalidate(mf);
+				if (attempt == 2)
+					throw new RuntimeException("could not download managed file #" + mf.id(), e);
+			} //
+			catch (IOException e) {
+				throw new RuntimeException("could not download managed file #" + mf.id(), e);
+			}
+		}
+	}
+
 	private long contentLength(Resource resource) {
 		try {
 			return resource.contentLength();
@@ -314,7 +899,7 @@ class DefaultManagedFileService implements TransactionSynchronization, ManagedFi
 			.update(kh);
 		var mf = this.getManagedFile(((Number) Objects.requireNonNull(kh.getKeys()).get("id")).longValue());
 		if (visible)
-			this.ensureVisibility(mf);
+			this.ensureVisibility(mf.id());
 		return mf;
 	}
 
@@ -322,62 +907,94 @@ class DefaultManagedFileService implements TransactionSynchronization, ManagedFi
 		managedFile.hydrate(rs.getLong("mogul"), rs.getLong("id"), rs.getString("bucket"),
 				rs.getString("storage_filename"), rs.getString("folder"), rs.getString("filename"),
 				rs.getTimestamp("created"), rs.getBoolean("written"), rs.getLong("size"), rs.getString("content_type"),
-				rs.getBoolean("visible"));
+				rs.getBoolean("visible"), rs.getString("etag"), rs.getTimestamp("updated"),
+				rs.getString("visible_etag"), rs.getString("content_hash"), rs.getLong("version"));
 	}
 
 	@Override
 	public void beforeCompletion() {
-		var managedFileMap = this.managedFiles.get();
+		@SuppressWarnings("unchecked")
+		var managedFileMap = (Map<Long, ManagedFile>) TransactionSynchronizationManager.getResource(this);
 		if (managedFileMap != null && !managedFileMap.isEmpty()) {
-			this.log.trace("beforeCompletion(): for the current thread there are {} managed files",
+			this.log.trace("beforeCompletion(): for the current transaction there are {} managed files",
 					managedFileMap.size());
-			// let's get all the IDs, then visit each managed file and hydrate.
-			var ids = managedFileMap//
-				.values()//
-				.stream()//
-				.map(ManagedFile::id)//
-				.map(i -> Long.toString(i))//
-				.collect(Collectors.joining(", "));
-
-			this.db //
-				.sql("select * from managed_file where id in ( " + ids + ")") //
-				.query(rs -> {
-					var mfId = rs.getLong("id");
-					var managedFile = managedFileMap.get(mfId);
-					initializeManagedFile(rs, managedFile);
+			this.hydrate(managedFileMap.values());
+		} //
+
+	}
+
+	/* visits each managed file not yet hydrated and hydrates them all with one query */
+	private void hydrate(Collection<ManagedFile> managedFiles) {
+		var pending = managedFiles//
+			.stream()//
+			.filter(managedFile -> !managedFile.initialized())//
+			.collect(Collectors.toMap(ManagedFile::id, managedFile -> managedFile, (a, b) -> a));
+		if (pending.isEmpty())
+			return;
+		JdbcUtils.queryByIds(this.db, "select * from managed_file where id = any(?::bigint[])", pending.keySet(),
+				rs -> {
+					var managedFile = pending.get(rs.getLong("id"));
+					this.initializeManagedFile(rs, managedFile);
 				});
+	}
 
-		} //
+	/**
+	 * returns hydrated {@link ManagedFile managed files}, loading whichever aren't
+	 * already cached with a single query. there's no need for a transaction.
+	 */
+	@Override
+	public Map<Long, ManagedFile> getManagedFiles(Collection<Long> managedFileIds) {
+		var managedFiles = new HashMap<Long, ManagedFile>();
+		for (var managedFileId : managedFileIds)
+			managedFiles.put(managedFileId, this.managedFiles.get(managedFileId));
+		this.hydrate(managedFiles.values());
+		return managedFiles;
+	}
 
+	@Override
+	public void afterCompletion(int status) {
+		TransactionSynchronizationManager.unbindResourceIfPossible(this);
 	}
 
 	/**
 	 * returns lazy, stand-in proxies to {@link ManagedFile managedfiles } that
-	 * materialize when used.
+	 * materialize when used. a managed file that's already been hydrated comes straight
+	 * out of the cache, without so much as a transaction.
 	 */
 	@Override
 	public ManagedFile getManagedFile(Long managedFileId) {
+		var managedFile = this.managedFiles.get(managedFileId);
+		if (managedFile.initialized())
+			return managedFile;
 		return this.transactionTemplate.execute(tx -> {
+			this.pendingManagedFiles().putIfAbsent(managedFileId, managedFile);
+			return managedFile;
+		});
+	}
 
+	/* the placeholders to be hydrated in one query when the current transaction finishes */
+	@SuppressWarnings("unchecked")
+	private Map<Long, ManagedFile> pendingManagedFiles() {
+		var pending = (Map<Long, ManagedFile>) TransactionSynchronizationManager.getResource(this);
+		if (pending == null) {
+			pending = new ConcurrentHashMap<>();
+			TransactionSynchronizationManager.bindResource(this, pending);
 			TransactionSynchronizationManager.registerSynchronization(this);
+		}
+		return pending;
+	}
 
-			if (this.managedFiles.get() == null)
-				this.managedFiles.set(new ConcurrentSkipListMap<>());
-
-			// this allows any managed file that for whatever reason we're manipulating
-			// and NOT able to wait for the transaction to commit to hydrate its state
-			var hydration = (Consumer<ManagedFile>) managedFile -> this.db
-				.sql("select * from managed_file where id = ?")
-				.param(managedFileId)
-				.query(rs -> {
-					if (this.log.isTraceEnabled())
-						this.log.trace("Manually hydrating ManagedFile #{}.".trim(), managedFileId);
-					this.initializeManagedFile(rs, managedFile);
-				});
-
-			return this.managedFiles.get().computeIfAbsent(managedFileId, mid -> new ManagedFile(mid, hydration)); //
-
-		});
+	// this allows any managed file that for whatever reason we're manipulating
+	// and NOT able to wait for the transaction to commit to hydrate its state
+	private void hydrate(ManagedFile managedFile) {
+		this.db //
+			.sql("select * from managed_file where id = ?")
+			.param(managedFile.id())
+			.query(rs -> {
+				if (this.log.isTraceEnabled())
+					this.log.trace("Manually hydrating ManagedFile #{}.".trim(), managedFile.id());
+				this.initializeManagedFile(rs, managedFile);
+			});
 	}
 
 }
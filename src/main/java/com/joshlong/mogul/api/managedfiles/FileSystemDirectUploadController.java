@@ -0,0 +1,38 @@
+package com.joshlong.mogul.api.managedfiles;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.util.Assert;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import java.io.IOException;
+
+/**
+ * receives the parts of direct uploads when the managed files are kept on the
+ * {@link FileSystemStorage local disk}, which has no presigned URLs of its own. the
+ * upload id is only ever handed to the mogul who started the upload.
+ */
+@Controller
+@ConditionalOnProperty(name = "mogul.managed-files.storage", havingValue = "filesystem")
+class FileSystemDirectUploadController {
+
+	private final FileSystemStorage storage;
+
+	FileSystemDirectUploadController(Storage storage) {
+		Assert.isInstanceOf(FileSystemStorage.class, storage, "direct upload parts can only be written to the disk");
+		this.storage = (FileSystemStorage) storage;
+	}
+
+	@ResponseBody
+	@PutMapping(FileSystemStorage.DIRECT_UPLOAD_PART_URL)
+	ResponseEntity<Void> writePart(@PathVariable String uploadId, @PathVariable int partNumber,
+			HttpServletRequest request) throws IOException {
+		var etag = this.storage.writeDirectUploadPart(uploadId, partNumber, request.getInputStream());
+		return ResponseEntity.ok().eTag(etag).build();
+	}
+
+}
@@ -0,0 +1,509 @@
+package com.joshlong.mogul.api.managedfiles;
+
+import com.joshlong.mogul.api.utils.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.MediaType;
+import org.springframework.util.Assert;
+import org.springframework.web.util.UriTemplate;
+
+import java.io.*;
+import java.net.URI;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * a {@link Storage storage engine} that keeps buckets as directories on the local disk,
+ * for single-node installs and for working with the media pipeline without a network in
+ * the way.
+ * <p>
+ * every write lands in a staging file first and is then atomically moved into place, so
+ * readers only ever see whole objects. the content type and ETag of each object live in a
+ * sidecar properties file under {@code .metadata}, which is staged and moved into place
+ * along with the object, under a lock that readers of the object take too. the ETag is
+ * the MD5 of the contents, same as S3 for objects uploaded in a single part. ranged reads
+ * are served from memory-mapped windows of the file and downloads are copied with
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}.
+ * <p>
+ * direct uploads are sent, a part at a time, to {@link #DIRECT_UPLOAD_PART_URL an
+ * endpoint of this service}, and the parts wait under {@code .uploads} until the upload
+ * is completed, when they're put together into the object, or aborted.
+ */
+class FileSystemStorage implements Storage {
+
+	private static final String METADATA_DIRECTORY = ".metadata";
+
+	private static final String STAGING_DIRECTORY = ".staging";
+
+	private static final String UPLOADS_DIRECTORY = ".uploads";
+
+	private static final String UPLOAD = "upload.properties";
+
+	private static final String CONTENT_TYPE = "content-type";
+
+	private static final String BUCKET = "bucket";
+
+	private static final String OBJECT_NAME = "object-name";
+
+	private static final String PART_SIZE = "part-size";
+
+	private static final String PARTS = "parts";
+
+	private static final long DIRECT_UPLOAD_PART_SIZE = 64 * 1024 * 1024;
+
+	/**
+	 * where the client {@code PUT}s each part of a direct upload.
+	 */
+	static final String DIRECT_UPLOAD_PART_URL = "/managedfiles/uploads/{uploadId}/parts/{partNumber}";
+
+	private static final String ETAG = "etag";
+
+	private final Logger log = LoggerFactory.getLogger(getClass());
+
+	private final Path root;
+
+	// the engine is for a single node, so the locks only need to be in this jvm
+	private final ReadWriteLock[] locks = new ReadWriteLock[64];
+
+	FileSystemStorage(File root) {
+		Assert.notNull(root, "the root directory must not be null");
+		this.root = FileUtils.ensureDirectoryExists(root).toPath().toAbsolutePath().normalize();
+		for (var i = 0; i < this.locks.length; i++)
+			this.locks[i] = new ReentrantReadWriteLock();
+		FileUtils.ensureDirectoryExists(this.root.resolve(STAGING_DIRECTORY).toFile());
+		FileUtils.ensureDirectoryExists(this.root.resolve(UPLOADS_DIRECTORY).toFile());
+		this.log.info("storing managed files in [{}]", this.root);
+	}
+
+	@Override
+	public void remove(String bucket, String objectName) {
+		var lock = this.lock(bucket, objectName).writeLock();
+		lock.lock();
+		try {
+			Files.deleteIfExists(this.object(bucket, objectName));
+			Files.deleteIfExists(this.metadata(bucket, objectName));
+		} //
+		catch (IOException e) {
+			throw new RuntimeException("could not remove [" + bucket + "/" + objectName + "]", e);
+		} //
+		finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public String write(String bucket, String objectName, Resource resource, MediaType mediaType) {
+		var staged = this.staging();
+		var stagedMetadata = this.staging();
+		try {
+			var digest = MessageDigest.getInstance("MD5");
+			try (var in = new DigestInputStream(resource.getInputStream(), digest)) {
+				Files.copy(in, staged, StandardCopyOption.REPLACE_EXISTING);
+			}
+			var etag = '"' + HexFormat.of().formatHex(digest.digest()) + '"';
+			this.stageMetadata(stagedMetadata, mediaType == null ? null : mediaType.toString(), etag);
+			this.publish(bucket, objectName, staged, stagedMetadata);
+			return etag;
+		} //
+		catch (Exception e) {
+			throw new RuntimeException("could not write [" + bucket + "/" + objectName + "]", e);
+		} //
+		finally {
+			FileUtils.delete(staged.toFile());
+			FileUtils.delete(stagedMetadata.toFile());
+		}
+	}
+
+	@Override
+	public void copy(String src, String dest, String key, MediaType newContentType) {
+		var staged = this.staging();
+		var stagedMetadata = this.staging();
+		try {
+			Properties metadata;
+			var lock = this.lock(src, key).readLock();
+			lock.lock();
+			try {
+				metadata = this.readMetadata(src, key);
+				Files.copy(this.object(src, key), staged, StandardCopyOption.REPLACE_EXISTING);
+			} //
+			finally {
+				lock.unlock();
+			}
+			var contentType = newContentType != null ? newContentType.toString()
+					: metadata.getProperty(CONTENT_TYPE);
+			this.stageMetadata(stagedMetadata, contentType, metadata.getProperty(ETAG));
+			this.publish(dest, key, staged, stagedMetadata);
+		} //
+		catch (IOException e) {
+			throw new RuntimeException("could not copy [" + src + "/" + key + "] to [" + dest + "/" + key + "]", e);
+		} //
+		finally {
+			FileUtils.delete(staged.toFile());
+			FileUtils.delete(stagedMetadata.toFile());
+		}
+	}
+
+	@Override
+	public boolean exists(String bucket, String key) {
+		return Files.isRegularFile(this.object(bucket, key));
+	}
+
+	@Override
+	public StoredObject head(String bucket, String key) {
+		var object = this.object(bucket, key);
+		var lock = this.lock(bucket, key).readLock();
+		lock.lock();
+		try {
+			var attributes = Files.readAttributes(object, BasicFileAttributes.class);
+			var metadata = this.readMetadata(bucket, key);
+			return new StoredObject(metadata.getProperty(ETAG), attributes.size(), metadata.getProperty(CONTENT_TYPE),
+					attributes.lastModifiedTime().toInstant());
+		} //
+		catch (NoSuchFileException e) {
+			return null;
+		} //
+		catch (IOException e) {
+			throw new RuntimeException("could not describe [" + bucket + "/" + key + "]", e);
+		} //
+		finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public Resource read(String bucket, String objectName) {
+		var object = this.object(bucket, objectName);
+		Assert.state(Files.isRegularFile(object), () -> "there is no object [" + bucket + "/" + objectName + "]");
+		return new FileSystemResource(object);
+	}
+
+	@Override
+	public Resource read(String bucket, String objectName, long start, long end, String eTag) {
+		Assert.state(start >= 0 && end >= start, "the range [" + start + "-" + end + "] is not valid");
+		var lock = this.lock(bucket, objectName).readLock();
+		lock.lock();
+		try {
+			// once it's open, the channel keeps reading the same version, whatever's
+			// written in the meantime
+			var channel = FileChannel.open(this.object(bucket, objectName), StandardOpenOption.READ);
+			var current = this.readMetadata(bucket, objectName).getProperty(ETAG);
+			if (eTag != null && !eTag.equals(current)) {
+				channel.close();
+				throw new IllegalStateException("the ETag of [" + bucket + "/" + objectName + "] is " + current
+						+ ", not " + eTag);
+			}
+			var last = Math.min(end, channel.size() - 1);
+			return new InputStreamResource(new MappedRegionInputStream(channel, start, last - start + 1));
+		} //
+		catch (IOException e) {
+			throw new RuntimeException(
+					"could not read bytes [" + start + "-" + end + "] of [" + bucket + "/" + objectName + "]", e);
+		} //
+		finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public File download(String bucket, String objectName, File destination) {
+		try (var source = FileChannel.open(this.object(bucket, objectName), StandardOpenOption.READ);
+				var target = FileChannel.open(destination.toPath(), StandardOpenOption.WRITE,
+						StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			var size = source.size();
+			var position = 0L;
+			while (position < size)
+				position += source.transferTo(position, size - position, target);
+			return destination;
+		} //
+		catch (IOException e) {
+			throw new RuntimeException("could not download [" + bucket + "/" + objectName + "] to ["
+					+ destination.getAbsolutePath() + "]", e);
+		}
+	}
+
+	@Override
+	public DirectUpload startDirectUpload(String bucket, String objectName, MediaType mediaType, long size) {
+		this.object(bucket, objectName); // make sure it's a valid key before going any further
+		var parts = (int) Math.max(1, (size + DIRECT_UPLOAD_PART_SIZE - 1) / DIRECT_UPLOAD_PART_SIZE);
+		var uploadId = UUID.randomUUID().toString();
+		var upload = new Properties();
+		upload.setProperty(BUCKET, bucket);
+		upload.setProperty(OBJECT_NAME, objectName);
+		upload.setProperty(PART_SIZE, Long.toString(DIRECT_UPLOAD_PART_SIZE));
+		upload.setProperty(PARTS, Integer.toString(parts));
+		if (mediaType != null)
+			upload.setProperty(CONTENT_TYPE, mediaType.toString());
+		try {
+			var directory = Files.createDirectories(this.upload(uploadId));
+			try (var out = Files.newOutputStream(directory.resolve(UPLOAD))) {
+				upload.store(out, null);
+			}
+		} //
+		catch (IOException e) {
+			throw new RuntimeException("could not start a direct upload for [" + bucket + "/" + objectName + "]", e);
+		}
+		var urls = new ArrayList<URI>(parts);
+		for (var part = 1; part <= parts; part++)
+			urls.add(new UriTemplate(DIRECT_UPLOAD_PART_URL).expand(uploadId, part));
+		this.log.debug("started a direct upload [{}] of {} parts for [{}/{}]", uploadId, parts, bucket, objectName);
+		return new DirectUpload(uploadId, DIRECT_UPLOAD_PART_SIZE, urls);
+	}
+
+	/**
+	 * writes one part of a direct upload, replacing whatever was sent for that part
+	 * before, and returns its ETag, which is the MD5 of the part, as with S3.
+	 */
+	String writeDirectUploadPart(String uploadId, int partNumber, InputStream content) {
+		var upload = this.readUpload(uploadId);
+		var parts = Integer.parseInt(upload.getProperty(PARTS));
+		var partSize = Long.parseLong(upload.getProperty(PART_SIZE));
+		Assert.state(partNumber >= 1 && partNumber <= parts,
+				() -> "the direct upload [" + uploadId + "] has no part " + partNumber);
+		var staged = this.staging();
+		try {
+			var digest = MessageDigest.getInstance("MD5");
+			try (var in = new DigestInputStream(content, digest)) {
+				Files.copy(in, staged, StandardCopyOption.REPLACE_EXISTING);
+			}
+			Assert.state(Files.size(staged) <= partSize,
+					() -> "part " + partNumber + " of the direct upload [" + uploadId + "] is too big");
+			Files.move(staged, this.upload(uploadId).resolve(Integer.toString(partNumber)),
+					StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			return '"' + HexFormat.of().formatHex(digest.digest()) + '"';
+		} //
+		catch (Exception e) {
+			throw new RuntimeException("could not write part " + partNumber + " of the direct upload [" + uploadId
+					+ "]", e);
+		} //
+		finally {
+			FileUtils.delete(staged.toFile());
+		}
+	}
+
+	/*
+	 * the parts are put together into a staged object, checking each against the ETag the
+	 * client got for it, and the object gets the MD5 of its whole contents as its ETag,
+	 * like any other object here.
+	 */
+	@Override
+	public StoredObject completeDirectUpload(String bucket, String objectName, String uploadId,
+			List<String> partETags) {
+		var upload = this.readUpload(uploadId, bucket, objectName);
+		var parts = Integer.parseInt(upload.getProperty(PARTS));
+		Assert.state(partETags.size() == parts,
+				() -> "the direct upload [" + uploadId + "] has " + parts + " parts, not " + partETags.size());
+		var staged = this.staging();
+		var stagedMetadata = this.staging();
+		try {
+			var digest = MessageDigest.getInstance("MD5");
+			try (var out = new DigestOutputStream(Files.newOutputStream(staged), digest)) {
+				for (var part = 1; part <= parts; part++) {
+					var partDigest = MessageDigest.getInstance("MD5");
+					var partFile = this.upload(uploadId).resolve(Integer.toString(part));
+					try (var in = new DigestInputStream(Files.newInputStream(partFile), partDigest)) {
+						in.transferTo(out);
+					}
+					var etag = '"' + HexFormat.of().formatHex(partDigest.digest()) + '"';
+					Assert.state(etag.equals(partETags.get(part - 1)), "part " + part + " of the direct upload ["
+							+ uploadId + "] has the ETag " + etag + ", not " + partETags.get(part - 1));
+				}
+			}
+			var etag = '"' + HexFormat.of().formatHex(digest.digest()) + '"';
+			this.stageMetadata(stagedMetadata, upload.getProperty(CONTENT_TYPE), etag);
+			this.publish(bucket, objectName, staged, stagedMetadata);
+			FileUtils.delete(this.upload(uploadId).toFile());
+			return this.head(bucket, objectName);
+		} //
+		catch (Exception e) {
+			throw new RuntimeException("could not complete the direct upload [" + uploadId + "] for [" + bucket + "/"
+					+ objectName + "]", e);
+		} //
+		finally {
+			FileUtils.delete(staged.toFile());
+			FileUtils.delete(stagedMetadata.toFile());
+		}
+	}
+
+	@Override
+	public void abortDirectUpload(String bucket, String objectName, String uploadId) {
+		if (!Files.isDirectory(this.upload(uploadId)))
+			return;
+		this.readUpload(uploadId, bucket, objectName);
+		FileUtils.delete(this.upload(uploadId).toFile());
+	}
+
+	private Properties readUpload(String uploadId, String bucket, String objectName) {
+		var upload = this.readUpload(uploadId);
+		Assert.state(bucket.equals(upload.getProperty(BUCKET)) && objectName.equals(upload.getProperty(OBJECT_NAME)),
+				() -> "the direct upload [" + uploadId + "] is not for [" + bucket + "/" + objectName + "]");
+		return upload;
+	}
+
+	private Properties readUpload(String uploadId) {
+		var file = this.upload(uploadId).resolve(UPLOAD);
+		Assert.state(Files.isRegularFile(file), () -> "there is no direct upload [" + uploadId + "]");
+		var upload = new Properties();
+		try (var in = Files.newInputStream(file)) {
+			upload.load(in);
+		} //
+		catch (IOException e) {
+			throw new RuntimeException("could not read the direct upload [" + uploadId + "]", e);
+		}
+		return upload;
+	}
+
+	/* upload ids come from the client, so they have to be exactly what we handed out */
+	private Path upload(String uploadId) {
+		Assert.state(UUID.fromString(uploadId).toString().equals(uploadId),
+				() -> "the direct upload [" + uploadId + "] is not valid");
+		return this.root.resolve(UPLOADS_DIRECTORY).resolve(uploadId);
+	}
+
+	/*
+	 * moves the object and its metadata into place together. both are staged in the same
+	 * file system as the buckets, so the moves are atomic, and readers of the object hold
+	 * its lock while they look at both, so they can't see one without the other.
+	 */
+	private void publish(String bucket, String objectName, Path stagedObject, Path stagedMetadata)
+			throws IOException {
+		var object = this.object(bucket, objectName);
+		var metadata = this.metadata(bucket, objectName);
+		Files.createDirectories(object.getParent());
+		Files.createDirectories(metadata.getParent());
+		var lock = this.lock(bucket, objectName).writeLock();
+		lock.lock();
+		try {
+			Files.move(stagedObject, object, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			Files.move(stagedMetadata, metadata, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} //
+		finally {
+			lock.unlock();
+		}
+	}
+
+	private void stageMetadata(Path staged, String contentType, String etag) throws IOException {
+		var properties = new Properties();
+		if (contentType != null)
+			properties.setProperty(CONTENT_TYPE, contentType);
+		if (etag != null)
+			properties.setProperty(ETAG, etag);
+		try (var out = Files.newOutputStream(staged)) {
+			properties.store(out, null);
+		}
+	}
+
+	private ReadWriteLock lock(String bucket, String objectName) {
+		return this.locks[Math.floorMod(Objects.hash(bucket, objectName), this.locks.length)];
+	}
+
+	private Properties readMetadata(String bucket, String objectName) throws IOException {
+		var properties = new Properties();
+		var metadata = this.metadata(bucket, objectName);
+		if (Files.isRegularFile(metadata)) {
+			try (var in = Files.newInputStream(metadata)) {
+				properties.load(in);
+			}
+		}
+		return properties;
+	}
+
+	private Path staging() {
+		return this.root.resolve(STAGING_DIRECTORY).resolve(UUID.randomUUID().toString());
+	}
+
+	private Path object(String bucket, String objectName) {
+		return this.resolve(this.root, bucket, objectName);
+	}
+
+	private Path metadata(String bucket, String objectName) {
+		return this.resolve(this.root.resolve(METADATA_DIRECTORY), bucket, objectName + ".properties");
+	}
+
+	/* keys come from our own database, but let's make sure they can't escape the root */
+	private Path resolve(Path base, String bucket, String objectName) {
+		Assert.hasText(bucket, "the bucket must not be empty");
+		Assert.state(!bucket.startsWith("."), "the bucket [" + bucket + "] is not valid");
+		var bucketDirectory = base.resolve(bucket).normalize();
+		var path = bucketDirectory.resolve(objectName.startsWith("/") ? objectName.substring(1) : objectName)
+			.normalize();
+		Assert.state(bucketDirectory.getParent().equals(base) && path.startsWith(bucketDirectory),
+				"the object [" + bucket + "/" + objectName + "] is outside of the storage root");
+		return path;
+	}
+
+	/**
+	 * streams a region of a file by mapping it into memory a window at a time, so even
+	 * regions larger than a single {@link MappedByteBuffer} can hold are supported.
+	 */
+	private static class MappedRegionInputStream extends InputStream {
+
+		private static final long WINDOW_SIZE = 64 * 1024 * 1024;
+
+		private final FileChannel channel;
+
+		private final long end;
+
+		private long position;
+
+		private MappedByteBuffer window;
+
+		MappedRegionInputStream(FileChannel channel, long start, long length) {
+			this.channel = channel;
+			this.position = start;
+			this.end = start + Math.max(0, length);
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (!this.ensureWindow())
+				return -1;
+			return this.window.get() & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0)
+				return 0;
+			if (!this.ensureWindow())
+				return -1;
+			var count = Math.min(len, this.window.remaining());
+			this.window.get(b, off, count);
+			return count;
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.window = null;
+			this.channel.close();
+		}
+
+		private boolean ensureWindow() throws IOException {
+			if (this.window != null && this.window.hasRemaining())
+				return true;
+			if (this.position >= this.end)
+				return false;
+			var size = Math.min(WINDOW_SIZE, this.end - this.position);
+			this.window = this.channel.map(FileChannel.MapMode.READ_ONLY, this.position, size);
+			this.position += size;
+			return true;
+		}
+
+	}
+
+}
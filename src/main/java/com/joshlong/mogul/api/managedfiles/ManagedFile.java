@@ -7,9 +7,8 @@ import org.springframework.util.StringUtils;
 
 import java.io.File;
 import java.util.Date;
-import java.util.Objects;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
 
 import static com.joshlong.mogul.api.managedfiles.DefaultManagedFileService.visibleBucketFor;
@@ -20,37 +19,26 @@ import static com.joshlong.mogul.api.managedfiles.DefaultManagedFileService.visi
 
 public class ManagedFile {
 
-	private final AtomicBoolean visible = new AtomicBoolean(false);
+	// shared by every managed file, so that none of them has to carry a lock of its own
+	private static final Lock[] HYDRATION_LOCKS = new Lock[64];
 
-	private final AtomicReference<Long> mogulId = new AtomicReference<>();
-
-	private final AtomicReference<Long> id = new AtomicReference<>();
-
-	private final AtomicReference<String> bucket = new AtomicReference<>();
-
-	private final AtomicReference<String> storageFilename = new AtomicReference<>();
-
-	private final AtomicReference<String> folder = new AtomicReference<>();
-
-	private final AtomicReference<String> filename = new AtomicReference<>();
-
-	private final AtomicReference<Date> created = new AtomicReference<>();
-
-	private final AtomicReference<Boolean> written = new AtomicReference<>();
-
-	private final AtomicReference<Long> size = new AtomicReference<>();
-
-	private final AtomicReference<String> contentType = new AtomicReference<>();
+	static {
+		for (var i = 0; i < HYDRATION_LOCKS.length; i++)
+			HYDRATION_LOCKS[i] = new ReentrantLock();
+	}
 
-	private final AtomicBoolean initialized = new AtomicBoolean();
+	private final long id;
 
 	private final Consumer<ManagedFile> hydration;
 
+	// null until hydrated, after which it never changes
+	private volatile State state;
+
 	ManagedFile(Long managedFileId, Consumer<ManagedFile> hydration) {
-		this.id.set(managedFileId);
-		this.initialized.set(false);
+		Assert.notNull(managedFileId, "the managed file id should not be null");
+		Assert.notNull(hydration, "the hydration function should not be null");
+		this.id = managedFileId;
 		this.hydration = hydration;
-		Assert.notNull(this.hydration, "the hydration function should not be null");
 	}
 
 	// what fields are unique to S3?
@@ -68,110 +56,134 @@ public class ManagedFile {
 
 	// private implementation detail
 	void hydrate(Long mogulId, Long id, String bucket, String storageFilename, String folder, String filename,
-			Date created, boolean written, long size, String contentType, boolean visible) {
-		this.mogulId.set(mogulId);
-		this.id.set(id);
-		this.bucket.set(bucket);
-		this.storageFilename.set(storageFilename);
-		this.folder.set(folder);
-		this.filename.set(filename);
-		this.created.set(created);
-		this.written.set(written);
-		this.size.set(size);
-		this.contentType.set(contentType);
-		this.visible.set(visible);
-		// very important
-		this.initialized.set(true);
-	}
-
-	private void ensureInitialized() {
-		if (!this.initialized.get()) {
-			// todo should this failure result in a read through to the DB? is there some
-			// way to make this lazily load its own data? can we give it a callback?
-			this.hydration.accept(this);
-			Assert.state(this.initialized.get(),
-					"managed file #" + this.id() + " should be initialized by this point.");
+			Date created, boolean written, long size, String contentType, boolean visible, String etag, Date updated,
+			String visibleEtag, String contentHash, long version) {
+		Assert.state(id == this.id, () -> "managed file #" + this.id + " can't be hydrated with managed file #" + id);
+		var createdTime = created == null ? 0 : created.getTime();
+		this.state = new State(mogulId, bucket, storageFilename, folder, filename, createdTime, written, size,
+				contentType, visible, etag, updated == null ? createdTime : updated.getTime(), visibleEtag,
+				contentHash, version);
+	}
+
+	boolean initialized() {
+		return this.state != null;
+	}
+
+	// managed files are shared between threads, so only the first of them hydrates
+	private State state() {
+		var state = this.state;
+		if (state != null)
+			return state;
+		var lock = HYDRATION_LOCKS[Long.hashCode(this.id) & (HYDRATION_LOCKS.length - 1)];
+		lock.lock();
+		try {
+			if (this.state == null)
+				this.hydration.accept(this);
+		} //
+		finally {
+			lock.unlock();
 		}
+		state = this.state;
+		Assert.state(state != null, () -> "managed file #" + this.id + " should be initialized by this point.");
+		return state;
 	}
 
 	@JsonProperty("mogulId")
 	public Long mogulId() {
-		this.ensureInitialized();
-		return this.mogulId.get();
+		return this.state().mogulId();
 	}
 
 	@JsonProperty("id")
 	public Long id() {
-		return this.id.get();
+		return this.id;
 	}
 
 	@JsonProperty("bucket")
 	public String bucket() {
-		this.ensureInitialized();
-		return this.bucket.get();
+		return this.state().bucket();
 	}
 
 	@JsonProperty("visibleBucket")
 	public String visibleBucket() {
-		this.ensureInitialized();
 		return visibleBucketFor(this.bucket());
 	}
 
 	@JsonProperty("storageFilename")
 	public String storageFilename() {
-		this.ensureInitialized();
-		return this.storageFilename.get();
+		return this.state().storageFilename();
 	}
 
 	@JsonProperty("folder")
 	public String folder() {
-		this.ensureInitialized();
-		return this.folder.get();
+		return this.state().folder();
 	}
 
 	@JsonProperty("filename")
 	public String filename() {
-		this.ensureInitialized();
-		return this.filename.get();
+		return this.state().filename();
 	}
 
 	@JsonProperty("created")
 	public Date created() {
-		this.ensureInitialized();
-		return this.created.get();
+		return new Date(this.state().created());
 	}
 
 	@JsonProperty("visible")
 	public boolean visible() {
-		this.ensureInitialized();
-		return this.visible.get();
+		return this.state().visible();
 	}
 
 	@JsonProperty("written")
 	public boolean written() {
-		this.ensureInitialized();
-		return this.written.get();
+		return this.state().written();
 	}
 
 	@JsonProperty("size")
 	public long size() {
-		this.ensureInitialized();
-		return this.size.get();
+		return this.state().size();
 	}
 
 	@JsonProperty("contentType")
 	public String contentType() {
-		this.ensureInitialized();
-		return this.contentType.get();
+		return this.state().contentType();
+	}
+
+	/**
+	 * the ETag of the object as last written to storage, or {@code null} if it has never
+	 * been written (or was written before we started keeping track).
+	 */
+	@JsonProperty("etag")
+	public String etag() {
+		return this.state().etag();
+	}
+
+	/**
+	 * when the contents were last written, falling back to when the record was created.
+	 */
+	@JsonProperty("updated")
+	public Date updated() {
+		return new Date(this.state().updated());
+	}
+
+	// the ETag of the contents as of the last copy to the visible bucket
+	String visibleEtag() {
+		return this.state().visibleEtag();
+	}
+
+	// the SHA-256 of the contents, if we know it
+	String contentHash() {
+		return this.state().contentHash();
+	}
+
+	// bumped by the database on every change to the row
+	long version() {
+		return this.state().version();
 	}
 
 	@Override
 	public String toString() {
-		return "ManagedFile{" + "mogulId=" + this.mogulId.get() + ", id=" + this.id.get() + ", bucket='"
-				+ this.bucket.get() + '\'' + ", storageFilename='" + this.storageFilename.get() + +'\'' + ", folder='"
-				+ this.folder.get() + '\'' + ", filename='" + this.filename.get() + '\'' + ", created="
-				+ this.created.get() + ", written=" + this.written.get() + "," + ", visible=" + this.visible.get() + ","
-				+ " size=" + this.size.get() + ", contentType='" + this.contentType.get() + '\'' + '}';
+		var state = this.state;
+		return "ManagedFile{" + "id=" + this.id + (state == null ? ", hydrated=false" : ", " + state) + '}';
 	}
 
 	@Override
@@ -181,12 +193,12 @@ public class ManagedFile {
 		if (o == null || getClass() != o.getClass())
 			return false;
 		var that = (ManagedFile) o;
-		return that.id().equals(this.id());
+		return that.id == this.id;
 	}
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(this.id());
+		return Long.hashCode(this.id);
 	}
 
 	public File uniqueLocalFile() {
@@ -200,4 +212,14 @@ public class ManagedFile {
 		return FileUtils.tempFile("managed-files-" + id, extension);
 	}
 
+	/**
+	 * everything we know about a managed file once it's been hydrated. it's published as a
+	 * whole, so nobody ever sees a managed file that's only partially hydrated. times are
+	 * kept as epoch milliseconds, since {@link Date dates} aren't immutable.
+	 */
+	private record State(long mogulId, String bucket, String storageFilename, String folder, String filename,
+			long created, boolean written, long size, String contentType, boolean visible, String etag, long updated,
+			String visibleEtag, String contentHash, long version) {
+	}
+
 }
@@ -0,0 +1,44 @@
+package com.joshlong.mogul.api.managedfiles;
+
+import com.joshlong.mogul.api.utils.DiskCache;
+
+import java.io.File;
+import java.util.function.Consumer;
+
+/**
+ * keeps local copies of the contents of frequently used {@link ManagedFile managed files}
+ * so that the same bytes aren't pulled down from S3 again and again as a podcast moves
+ * through normalization, transcription, production, and publication. entries are keyed by
+ * the managed file and the version of its contents, so a write elsewhere can never
+ * surface stale bytes.
+ */
+class ManagedFileContentCache {
+
+	private final DiskCache<Key> cache;
+
+	ManagedFileContentCache(DiskCache<Key> cache) {
+		this.cache = cache;
+	}
+
+	File get(ManagedFile managedFile, Consumer<File> loader) {
+		return this.cache.get(keyFor(managedFile), (key, file) -> loader.accept(file));
+	}
+
+	void invalidate(ManagedFile managedFile) {
+		this.cache.invalidate(keyFor(managedFile));
+	}
+
+	void invalidate(Long managedFileId) {
+		this.cache.invalidateAll(key -> key.managedFileId().equals(managedFileId));
+	}
+
+	private static Key keyFor(ManagedFile managedFile) {
+		var etag = managedFile.etag();
+		var version = etag != null ? etag : managedFile.updated().getTime() + ":" + managedFile.size();
+		return new Key(managedFile.id(), version);
+	}
+
+	record Key(Long managedFileId, String version) {
+	}
+
+}
@@ -1,20 +1,29 @@
 package com.joshlong.mogul.api.managedfiles;
 
+import com.joshlong.mogul.api.ApiProperties;
 import com.joshlong.mogul.api.mogul.MogulService;
+import jakarta.servlet.http.HttpServletRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.NestedExceptionUtils;
 import org.springframework.core.io.Resource;
 import org.springframework.graphql.data.method.annotation.Argument;
 import org.springframework.graphql.data.method.annotation.MutationMapping;
 import org.springframework.graphql.data.method.annotation.QueryMapping;
 import org.springframework.graphql.data.method.annotation.SchemaMapping;
-import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
+import org.springframework.graphql.execution.BatchLoaderRegistry;
+import org.springframework.http.*;
 import org.springframework.stereotype.Controller;
 import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.*;
-import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
+import reactor.core.publisher.Mono;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
 import java.util.Map;
 
 @Controller
@@ -30,9 +39,17 @@ class ManagedFileController {
 
 	private final MogulService mogulService;
 
-	ManagedFileController(ManagedFileService managedFileService, MogulService mogulService) {
+	private final long maximumUploadSize;
+
+	ManagedFileController(ManagedFileService managedFileService, MogulService mogulService,
+			BatchLoaderRegistry registry, ApiProperties properties) {
 		this.managedFileService = managedFileService;
 		this.mogulService = mogulService;
+		this.maximumUploadSize = properties.managedFiles().uploads().maximumSize().toBytes();
+		// any field of type ManagedFile can resolve through a DataLoader<Long,ManagedFile>
+		registry.forTypePair(Long.class, ManagedFile.class)
+			.registerMappedBatchLoader((managedFileIds, environment) -> Mono
+				.fromCallable(() -> managedFileService.getManagedFiles(managedFileIds)));
 	}
 
 	@MutationMapping
@@ -44,13 +61,13 @@ class ManagedFileController {
 	@SchemaMapping
 	String visibleUrl(ManagedFile managedFile) {
 
-		return this.managedFileService.getPublicUrlForManagedFile(managedFile.id());
+		return this.managedFileService.getPublicUrlForManagedFile(managedFile);
 	}
 
 	@SchemaMapping
 	String downloadableUrl(ManagedFile managedFile) {
 		if (managedFile.written() && managedFile.visible()) {
-			var publicUrl = this.managedFileService.getPublicUrlForManagedFile(managedFile.id());
+			var publicUrl = this.managedFileService.getPublicUrlForManagedFile(managedFile);
 			return publicUrl + "?download=true";
 		}
 		return null;
@@ -61,6 +78,39 @@ class ManagedFileController {
 		return this.managedFileService.getPrivateUrlForManagedFile(managedFile.id());
 	}
 
+	@MutationMapping
+	ManagedFileUpload startManagedFileUpload(@Argument Long managedFileId, @Argument String contentType,
+			@Argument Double size) {
+		this.assertAuthorized(managedFileId);
+		var mediaType = StringUtils.hasText(contentType) ? MediaType.parseMediaType(contentType)
+				: CommonMediaTypes.BINARY;
+		return this.managedFileService.startManagedFileUpload(managedFileId, mediaType, size.longValue());
+	}
+
+	@MutationMapping
+	ManagedFile completeManagedFileUpload(@Argument Long managedFileId, @Argument String uploadId,
+			@Argument String filename, @Argument List<String> partETags) {
+		this.assertAuthorized(managedFileId);
+		return this.managedFileService.completeManagedFileUpload(managedFileId, uploadId, filename, partETags);
+	}
+
+	@MutationMapping
+	boolean abortManagedFileUpload(@Argument Long managedFileId, @Argument String uploadId) {
+		this.assertAuthorized(managedFileId);
+		this.managedFileService.abortManagedFileUpload(managedFileId, uploadId);
+		return true;
+	}
+
+	private ManagedFile assertAuthorized(Long managedFileId) {
+		Assert.notNull(managedFileId, "the id should not be null");
+		var mogul = this.mogulService.getCurrentMogul();
+		var managedFile = this.managedFileService.getManagedFile(managedFileId);
+		Assert.notNull(managedFile, "the managed file is null for managed file id [" + managedFileId + "]");
+		Assert.state(managedFile.mogulId().equals(mogul.id()),
+				"you're trying to write to an invalid file to which you are not authorized!");
+		return managedFile;
+	}
+
 	@QueryMapping
 	ManagedFile managedFileById(@Argument Long managedFileId) {
 		return this.managedFileService.getManagedFile(managedFileId);
@@ -68,17 +118,24 @@ class ManagedFileController {
 
 	@ResponseBody
 	@GetMapping(PUBLIC_MF_URL)
-	ResponseEntity<Resource> readPublic(@PathVariable Long id) {
-		return this.doRead(true, id);
+	ResponseEntity<Resource> readPublic(@PathVariable Long id, WebRequest request,
+			@RequestHeader HttpHeaders headers) {
+		return this.doRead(true, id, request, headers);
 	}
 
 	@ResponseBody
 	@GetMapping(MF_RW_URL)
-	ResponseEntity<Resource> read(@PathVariable Long id) {
-		return this.doRead(false, id);
+	ResponseEntity<Resource> read(@PathVariable Long id, WebRequest request, @RequestHeader HttpHeaders headers) {
+		return this.doRead(false, id, request, headers);
 	}
 
-	private ResponseEntity<Resource> doRead(boolean assertVisible, Long managedFileId) {
+	/*
+	 * the ETag and last-modified date live in the managed_file table, so a revalidation
+	 * that ends in a 304 never touches S3. a single byte range is translated directly into
+	 * a ranged S3 GET; anything we can't serve as one range is served in full.
+	 */
+	private ResponseEntity<Resource> doRead(boolean assertVisible, Long managedFileId, WebRequest request,
+			HttpHeaders headers) {
 		Assert.notNull(managedFileId, "the managedFileId is null");
 		var managedFile = this.managedFileService.getManagedFile(managedFileId);
 		Assert.notNull(managedFile, "the managed file does not exist [" + managedFileId + "]");
@@ -89,32 +146,119 @@ class ManagedFileController {
 				return ResponseEntity.notFound().build();
 			}
 		}
-		var read = this.managedFileService.read(managedFileId);
-		var contentType = managedFile.contentType();
+		var etag = managedFile.etag();
+		var lastModified = managedFile.updated().getTime();
+		var cacheControl = assertVisible ? CacheControl.noCache().cachePublic() : CacheControl.noCache().cachePrivate();
+		if (request.checkNotModified(etag, lastModified)) {
+			this.log.trace("managed file #{} has not been modified", managedFileId);
+			return null;
+		}
+		var contentType = MediaType.parseMediaType(managedFile.contentType());
 		this.log.debug("content-type: {}", contentType);
+		var size = managedFile.size();
+		var range = this.range(headers, etag, lastModified);
+		if (range != null) {
+			if (size == 0 || range.getRangeStart(size) >= size) {
+				return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+					.header(HttpHeaders.CONTENT_RANGE, "bytes */" + size)
+					.build();
+			}
+			var start = range.getRangeStart(size);
+			var end = range.getRangeEnd(size);
+			var read = this.managedFileService.read(managedFileId, etag, start, end);
+			return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
+				.header(HttpHeaders.ACCEPT_RANGES, "bytes")
+				.header(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size)
+				.cacheControl(cacheControl)
+				.contentLength(end - start + 1)
+				.contentType(contentType)
+				.body(read);
+		}
+		var read = this.managedFileService.read(managedFileId);
 		return ResponseEntity.ok()
-			.contentLength(managedFile.size())
-			.contentType(MediaType.parseMediaType(contentType))
+			.header(HttpHeaders.ACCEPT_RANGES, "bytes")
+			.cacheControl(cacheControl)
+			.contentLength(size)
+			.contentType(contentType)
 			.body(read);
 	}
 
+	/*
+	 * returns the single range requested, or null if the whole file should be served:
+	 * because there is no range, because there are several, because the range is
+	 * malformed, or because an If-Range precondition no longer matches.
+	 */
+	private HttpRange range(HttpHeaders headers, String etag, long lastModified) {
+		if (!headers.containsKey(HttpHeaders.RANGE))
+			return null;
+		var ifRange = headers.getFirst(HttpHeaders.IF_RANGE);
+		if (StringUtils.hasText(ifRange) && !ifRange.equals(etag)) {
+			var ifRangeDate = headers.getFirstDate(HttpHeaders.IF_RANGE);
+			if (ifRangeDate == -1 || ifRangeDate / 1000 != lastModified / 1000)
+				return null;
+		}
+		try {
+			var ranges = headers.getRange();
+			return ranges.size() == 1 ? ranges.getFirst() : null;
+		} //
+		catch (IllegalArgumentException e) {
+			this.log.debug("could not parse the range [{}]", headers.getFirst(HttpHeaders.RANGE), e);
+			return null;
+		}
+	}
+
+	/*
+	 * the multipart body is parsed as it arrives and the file part is streamed straight
+	 * into storage, so nothing is spooled to disk. spring's own multipart support is
+	 * turned off, since it would read the whole body before we ever saw it, and so it's
+	 * up to us to refuse bodies that are too large: up front, if the client says how large
+	 * the body is, or as soon as we've read too much, if it doesn't. browsers send
+	 * application/octet-stream for files they don't recognize, so that's no better than
+	 * no content type at all, and either way we work it out from the contents.
+	 */
 	@ResponseBody
 	@PostMapping(MF_RW_URL)
-	Map<String, Object> write(@PathVariable Long id, @RequestParam MultipartFile file) {
-		Assert.notNull(id, "the id should not be null");
-		var mogul = this.mogulService.getCurrentMogul();
-		var managedFile = this.managedFileService.getManagedFile(id);
-		Assert.notNull(managedFile, "the managed file is null for managed file id [" + id + "]");
-		Assert.state(managedFile.mogulId().equals(mogul.id()),
-				"you're trying to write to an invalid file to which you are not authorized!");
+	Map<String, Object> write(@PathVariable Long id, HttpServletRequest request) throws IOException {
+		var managedFile = this.assertAuthorized(id);
 		var managedFileId = managedFile.id();
-		var originalFilename = file.getOriginalFilename();
-		var mediaType = CommonMediaTypes.guess(file.getResource());
-		log.debug("guessing the media type for [{}] is  {}", file.getOriginalFilename(), mediaType);
-		this.managedFileService.write(managedFileId, originalFilename, mediaType, file.getResource());
-		var updated = this.managedFileService.getManagedFile(managedFileId);
-		this.log.trace("finished writing managed file [{}] to s3: {}:{}", id, originalFilename, updated.toString());
-		return Map.of("managedFileId", id);
+		var contentType = MediaType.parseMediaType(request.getContentType());
+		Assert.state(MediaType.MULTIPART_FORM_DATA.includes(contentType),
+				"the request must be " + MediaType.MULTIPART_FORM_DATA_VALUE);
+		if (request.getContentLengthLong() > this.maximumUploadSize)
+			throw new MaxUploadSizeExceededException(this.maximumUploadSize);
+		var boundary = contentType.getParameter("boundary");
+		if (boundary != null && boundary.length() > 1 && boundary.startsWith("\"") && boundary.endsWith("\""))
+			boundary = boundary.substring(1, boundary.length() - 1);
+		try (var reader = new MultipartStreamReader(request.getInputStream(), boundary, this.maximumUploadSize)) {
+			for (var part = reader.next(); part != null; part = reader.next()) {
+				if (!"file".equals(part.name()) || part.filename() == null)
+					continue;
+				var originalFilename = part.filename();
+				var partContentType = StringUtils.hasText(part.contentType())
+						? MediaType.parseMediaType(part.contentType()) : null;
+				var mediaType = CommonMediaTypes.BINARY.equalsTypeAndSubtype(partContentType) ? null : partContentType;
+				this.write(managedFileId, originalFilename, mediaType, part.body());
+				var updated = this.managedFileService.getManagedFile(managedFileId);
+				this.log.trace("finished writing managed file [{}]: {}:{}", id, originalFilename, updated.toString());
+				return Map.of("managedFileId", id);
+			}
+		}
+		throw new IllegalStateException("there is no file part in the request to write to managed file #" + id);
+	}
+
+	/*
+	 * the storage engines wrap whatever goes wrong, but a body that's too large is the
+	 * client's fault
+	 */
+	private void write(Long managedFileId, String filename, MediaType mediaType, InputStream content) {
+		try {
+			this.managedFileService.write(managedFileId, filename, mediaType, content);
+		} //
+		catch (RuntimeException exception) {
+			if (NestedExceptionUtils.getRootCause(exception) instanceof MaxUploadSizeExceededException tooLarge)
+				throw tooLarge;
+			throw exception;
+		}
 	}
 
 }
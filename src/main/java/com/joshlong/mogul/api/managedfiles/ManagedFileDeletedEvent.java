@@ -1,4 +0,0 @@
-package com.joshlong.mogul.api.managedfiles;
-
-public record ManagedFileDeletedEvent(ManagedFile managedFile) {
-}
@@ -0,0 +1,212 @@
+package com.joshlong.mogul.api.managedfiles;
+
+import com.joshlong.mogul.api.ApiProperties;
+import com.joshlong.mogul.api.utils.JdbcUtils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.util.Assert;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * drains the outstanding {@link ManagedFileDeletionRequest managed file deletion
+ * requests}. requests are claimed in batches, with {@code for update skip locked}, so
+ * that any number of nodes can drain the queue at the same time without working on the
+ * same rows. the objects in each batch are grouped by bucket and removed with as few
+ * storage calls as possible. a batch that keeps failing is left alone until its claim
+ * expires, at which point somebody will try it again.
+ * <p>
+ * an object is only removed once no managed file refers to it, and nothing can start
+ * referring to it after that: a managed file only ever comes to share an object after
+ * locking the managed files that already refer to it and finding them still there. a
+ * visible copy, on the other hand, can be made again at any moment, by a managed file
+ * that has just become visible, so the managed files whose visible copies were removed
+ * from under them are told so afterwards, and get new ones.
+ */
+class ManagedFileDeletionEngine {
+
+	private static final Duration INITIAL_BACKOFF = Duration.ofSeconds(1);
+
+	private final Logger log = LoggerFactory.getLogger(getClass());
+
+	private final ManagedFileDeletionRequestRowMapper rowMapper = new ManagedFileDeletionRequestRowMapper();
+
+	private final JdbcClient db;
+
+	private final Storage storage;
+
+	private final MeterRegistry registry;
+
+	private final Counter objects;
+
+	private final ApiProperties.ManagedFiles.Deletions settings;
+
+	ManagedFileDeletionEngine(JdbcClient db, Storage storage, MeterRegistry registry,
+			ApiProperties.ManagedFiles.Deletions settings) {
+		this.db = db;
+		this.storage = storage;
+		this.registry = registry;
+		this.settings = settings;
+		Assert.notNull(this.settings, "you must configure the managed file deletion settings");
+		Assert.state(this.settings.batchSize() > 0, "the batch size must be greater than zero");
+		Assert.state(this.settings.concurrency() > 0, "the concurrency must be greater than zero");
+		Assert.state(this.settings.attempts() > 0, "there must be at least one attempt");
+		this.objects = Counter.builder("mogul.managedfiles.deletions.objects").register(registry);
+	}
+
+	/**
+	 * works through batches of deletion requests until there are none left to claim, and
+	 * returns how many requests were completed.
+	 */
+	int drain() {
+		var completed = new AtomicInteger();
+		try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (var i = 0; i < this.settings.concurrency(); i++) {
+				executor.submit(() -> {
+					try {
+						for (var batch = this.claim(); !batch.isEmpty(); batch = this.claim())
+							completed.addAndGet(this.process(batch));
+					} //
+					catch (Throwable throwable) {
+						this.log.error("could not claim managed file deletion requests", throwable);
+					}
+				});
+			}
+		}
+		return completed.get();
+	}
+
+	private List<ManagedFileDeletionRequest> claim() {
+		var sql = """
+				update managed_file_deletion_request set claimed = now()
+				where id in (
+				    select id from managed_file_deletion_request
+				    where deleted = false and (claimed is null or claimed < now() - make_interval(secs => ?))
+				    order by id
+				    limit ?
+				    for update skip locked
+				)
+				returning *
+				""";
+		return this.db.sql(sql)
+			.params(this.settings.claim().toSeconds(), this.settings.batchSize())
+			.query(this.rowMapper)
+			.list();
+	}
+
+	private int process(List<ManagedFileDeletionRequest> batch) {
+		var references = this.references(batch);
+		var keysByBucket = new HashMap<String, Set<String>>();
+		var invisible = new ArrayList<Long>();
+		for (var request : batch) {
+			var key = request.folder() + '/' + request.storageFilename();
+			var visible = references.get(request.id());
+			if (visible == null)
+				keysByBucket.computeIfAbsent(request.bucket(), b -> new TreeSet<>()).add(key);
+			if (visible == null || !visible) {
+				keysByBucket.computeIfAbsent(request.visibleBucket(), b -> new TreeSet<>()).add(key);
+				invisible.add(request.id());
+			}
+		}
+		var sample = Timer.start(this.registry);
+		var outcome = "failure";
+		try {
+			for (var attempt = 1; attempt <= this.settings.attempts(); attempt++) {
+				try {
+					for (var entry : keysByBucket.entrySet())
+						this.storage.remove(entry.getKey(), entry.getValue());
+					this.forgetVisibleCopies(invisible);
+					this.complete(batch);
+					outcome = "success";
+					this.objects.increment(keysByBucket.values().stream().mapToInt(Set::size).sum());
+					this.log.debug("completed {} managed file deletion requests", batch.size());
+					return batch.size();
+				} //
+				catch (Exception exception) {
+					this.log.warn("attempt {} of {} to complete {} managed file deletion requests failed", attempt,
+							this.settings.attempts(), batch.size(), exception);
+					if (attempt < this.settings.attempts())
+						this.backoff(attempt);
+				}
+			}
+			return 0;
+		} //
+		finally {
+			sample.stop(Timer.builder("mogul.managedfiles.deletions.batch")
+				.tag("outcome", outcome)
+				.register(this.registry));
+		}
+	}
+
+	/*
+	 * managed files with the same contents share an object, so an object stays for as long
+	 * as a managed file refers to it, and its visible copy for as long as one of those is
+	 * visible. returns whether any of the referring managed files are visible, for each
+	 * request whose object is still referred to.
+	 */
+	private Map<Long, Boolean> references(List<ManagedFileDeletionRequest> batch) {
+		var ids = batch.stream().map(ManagedFileDeletionRequest::id).toList();
+		var references = new HashMap<Long, Boolean>();
+		JdbcUtils.queryByIds(this.db, """
+				select r.id, bool_or(m.visible) as visible
+				from managed_file_deletion_request r
+				join managed_file m
+				    on m.bucket = r.bucket and m.folder = r.folder and m.storage_filename = r.storage_filename
+				where r.id = any(?::bigint[])
+				group by r.id
+				""", ids, rs -> {
+			references.put(rs.getLong("id"), rs.getBoolean("visible"));
+		});
+		return references;
+	}
+
+	/*
+	 * the visible managed files that refer to objects whose visible copies we've just
+	 * removed. they became visible after we looked, and the copies they made are gone, so
+	 * they'll be copied again.
+	 */
+	private void forgetVisibleCopies(List<Long> requestIds) {
+		if (requestIds.isEmpty())
+			return;
+		var forgotten = JdbcUtils.updateByIds(this.db, """
+				update managed_file m set visible_etag = null
+				from managed_file_deletion_request r
+				where r.id = any(?::bigint[])
+				    and m.bucket = r.bucket and m.folder = r.folder and m.storage_filename = r.storage_filename
+				    and m.visible = true and m.visible_etag is not null
+				""", requestIds);
+		if (forgotten > 0)
+			this.log.debug("{} managed files became visible while their visible copies were being removed",
+					forgotten);
+	}
+
+	private void complete(List<ManagedFileDeletionRequest> batch) {
+		var ids = batch.stream().map(ManagedFileDeletionRequest::id).toList();
+		JdbcUtils.updateByIds(this.db,
+				"update managed_file_deletion_request set deleted = true, claimed = null where id = any(?::bigint[])",
+				ids);
+	}
+
+	private void backoff(int attempt) {
+		try {
+			Thread.sleep(INITIAL_BACKOFF.multipliedBy(1L << (attempt - 1)));
+		} //
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while waiting to retry", e);
+		}
+	}
+
+}
@@ -5,7 +5,10 @@ import org.springframework.core.io.Resource;
 import org.springframework.http.MediaType;
 
 import java.io.File;
+import java.io.InputStream;
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 
 public interface ManagedFileService {
 
@@ -13,8 +16,8 @@ public interface ManagedFileService {
 	void setManagedFileVisibility(Long managedFileId, boolean visible);
 
 	/**
-	 * this will delete the record _and_ queue it up for deletion by a separate process in
-	 * S3 if required
+	 * brings the record up to date with whatever is in storage, for when something other
+	 * than this service wrote the object.
 	 */
 	void refreshManagedFile(Long managedFileId);
 
@@ -26,12 +29,61 @@ public interface ManagedFileService {
 
 	void deleteManagedFile(Long managedFileId);
 
+	/**
+	 * deletes all the managed files at once, with a handful of statements no matter how
+	 * many there are, and publishes a single {@link ManagedFilesDeletedEvent}.
+	 */
+	void deleteManagedFiles(Collection<Long> managedFileIds);
+
 	ManagedFile getManagedFile(Long managedFileId);
 
+	/**
+	 * returns the hydrated managed files for the given ids, loading all of those that
+	 * aren't already cached in a single query.
+	 */
+	Map<Long, ManagedFile> getManagedFiles(Collection<Long> managedFileIds);
+
 	Resource read(Long managedFileId);
 
+	/**
+	 * reads only the bytes from {@code start} to {@code end}, inclusive, of the contents
+	 * with the given ETag, failing if the contents have since changed.
+	 */
+	Resource read(Long managedFileId, String etag, long start, long end);
+
+	/**
+	 * downloads the contents of the managed file into the given local file, fetching
+	 * larger files in parallel byte ranges. prefer this to {@link #read(Long)} whenever the
+	 * bytes are destined for the local disk anyway. the file may share its contents with a
+	 * local cache, so it's read-only: read, move, or delete it, but don't write to it.
+	 */
+	File download(Long managedFileId, File destination);
+
+	/**
+	 * starts an upload that the client sends straight to storage, bypassing this node.
+	 * nothing changes until the upload is
+	 * {@link #completeManagedFileUpload(Long, String, String, List) completed}.
+	 */
+	ManagedFileUpload startManagedFileUpload(Long managedFileId, MediaType mediaType, long size);
+
+	/**
+	 * finishes a direct upload, after which it's just as if the contents had been
+	 * {@link #write(Long, String, MediaType, Resource) written}.
+	 */
+	ManagedFile completeManagedFileUpload(Long managedFileId, String uploadId, String filename,
+			List<String> partETags);
+
+	void abortManagedFileUpload(Long managedFileId, String uploadId);
+
 	void write(Long managedFileId, String filename, MediaType mts, Resource resource);
 
+	/**
+	 * writes the content as it arrives, without ever holding all of it in memory or on
+	 * disk. if the media type is null it's sniffed from the content, or guessed from the
+	 * filename.
+	 */
+	void write(Long managedFileId, String filename, MediaType mediaType, InputStream content);
+
 	/**
 	 * behind the scenes this variant simply creates a {@link FileSystemResource} which
 	 * can be queried for its content length
@@ -42,6 +94,8 @@ public interface ManagedFileService {
 
 	String getPublicUrlForManagedFile(Long managedFile);
 
+	String getPublicUrlForManagedFile(ManagedFile managedFile);
+
 	ManagedFile createManagedFile(Long mogulId, String folder, String fileName, long size, MediaType mediaType,
 			boolean visible);
 
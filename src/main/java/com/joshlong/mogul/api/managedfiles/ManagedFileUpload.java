@@ -0,0 +1,13 @@
+package com.joshlong.mogul.api.managedfiles;
+
+import java.util.List;
+
+/**
+ * an upload that the client sends straight to storage, or, when the managed files are
+ * on the local disk, to this service. the client splits the file into parts of
+ * {@code partSize} bytes (the last may be smaller), {@code PUT}s each to the URL at the
+ * same position in {@code partUrls}, and then completes the upload with the {@code ETag}
+ * header of every response.
+ */
+public record ManagedFileUpload(Long managedFileId, String uploadId, long partSize, List<String> partUrls) {
+}
@@ -1,34 +1,53 @@
 package com.joshlong.mogul.api.managedfiles;
 
+import com.joshlong.mogul.api.ApiProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.aot.hint.annotation.RegisterReflectionForBinding;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.integration.core.MessageSource;
 import org.springframework.integration.dsl.IntegrationFlow;
 import org.springframework.integration.dsl.PollerFactory;
-import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.jdbc.core.simple.JdbcClient;
 
 import java.time.Duration;
-import java.util.Collection;
 
 @Configuration
 @RegisterReflectionForBinding(ManagedFile.class)
 class ManagedFilesConfiguration {
 
-	@Bean
-	IntegrationFlow managedFileDeletionRequestsIntegrationFlow(ManagedFileService managedFileService) {
+	private final Logger log = LoggerFactory.getLogger(getClass());
 
-		var messageSource = (MessageSource<Collection<ManagedFileDeletionRequest>>) () -> MessageBuilder
-			.withPayload(managedFileService.getOutstandingManagedFileDeletionRequests())
-			.build();
+	@Bean
+	ManagedFileDeletionEngine managedFileDeletionEngine(JdbcClient db, Storage storage, MeterRegistry registry,
+			ApiProperties properties) {
+		return new ManagedFileDeletionEngine(db, storage, registry, properties.managedFiles().deletions());
+	}
 
+	@Bean
+	IntegrationFlow managedFileDeletionRequestsIntegrationFlow(ManagedFileDeletionEngine deletionEngine) {
 		return IntegrationFlow
-			.from(messageSource,
+			.fromSupplier(deletionEngine::drain,
 					pc -> pc.poller(pm -> PollerFactory.fixedRate(Duration.ofMinutes(1), Duration.ofMinutes(1))))
-			.split()
 			// this does the dirty work of deleting the bits from s3.
-			.handle(ManagedFileDeletionRequest.class, (payload, headers) -> {
-				managedFileService.completeManagedFileDeletion(payload.id());
+			.handle(Integer.class, (completed, headers) -> {
+				if (completed > 0)
+					this.log.debug("completed {} managed file deletion requests", completed);
+				return null;
+			})
+			.get();
+	}
+
+	@Bean
+	IntegrationFlow managedFileVisibilityIntegrationFlow(DefaultManagedFileService managedFileService) {
+		return IntegrationFlow
+			.fromSupplier(managedFileService::synchronizeOutdatedVisibility,
+					pc -> pc.poller(pm -> PollerFactory.fixedRate(Duration.ofMinutes(1), Duration.ofMinutes(1))))
+			// the visible copies that somebody asked for, but that never got made
+			.handle(Integer.class, (outdated, headers) -> {
+				if (outdated > 0)
+					this.log.debug("asked for the visible copies of {} managed files to be synchronized", outdated);
 				return null;
 			})
 			.get();
@@ -0,0 +1,6 @@
+package com.joshlong.mogul.api.managedfiles;
+
+import java.util.Collection;
+
+public record ManagedFilesDeletedEvent(Collection<Long> managedFileIds) {
+}
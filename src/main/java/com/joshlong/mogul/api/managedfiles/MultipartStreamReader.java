@@ -0,0 +1,220 @@
+package com.joshlong.mogul.api.managedfiles;
+
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.util.Assert;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * reads a {@code multipart/form-data} body one part at a time, straight off the wire.
+ * each part's body is itself a stream, so a part of any size can be handed on to
+ * wherever it needs to go without first being written to disk or held in memory. a
+ * part's body must be read, or skipped, before moving on to the next part.
+ * <p>
+ * the body can't be any larger than the maximum size: the moment more than that has been
+ * read, every read fails with a {@link MaxUploadSizeExceededException}.
+ */
+class MultipartStreamReader implements AutoCloseable {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final int MAXIMUM_HEADERS_SIZE = 16 * 1024;
+
+	private static final byte[] CRLF = { '\r', '\n' };
+
+	private static final byte[] HEADERS_END = { '\r', '\n', '\r', '\n' };
+
+	private final InputStream in;
+
+	private final byte[] delimiter;
+
+	private final long maximumSize;
+
+	private long size;
+
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+
+	private int head;
+
+	private int tail;
+
+	private PartInputStream current;
+
+	private boolean finished;
+
+	/**
+	 * @param boundary the {@code boundary} parameter of the request's content type.
+	 * @param maximumSize how many bytes of the body may be read, in all.
+	 */
+	MultipartStreamReader(InputStream in, String boundary, long maximumSize) {
+		Assert.notNull(in, "the input stream must not be null");
+		Assert.hasText(boundary, "the multipart boundary must not be empty");
+		Assert.state(boundary.length() <= 70, "the multipart boundary is too long");
+		Assert.state(maximumSize > 0, "the maximum size must be greater than zero");
+		this.in = in;
+		this.maximumSize = maximumSize;
+		this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+		// the first boundary isn't preceded by a line break, so we pretend that it is, and
+		// then whatever comes before it is just a part that nobody reads
+		System.arraycopy(CRLF, 0, this.buffer, 0, CRLF.length);
+		this.tail = CRLF.length;
+		this.current = new PartInputStream();
+	}
+
+	/**
+	 * skips whatever is left of the current part and returns the next one, or null if
+	 * there are no more.
+	 */
+	Part next() throws IOException {
+		if (this.finished)
+			return null;
+		this.current.skipRemaining();
+		if (!this.ensureAvailable(2))
+			throw new EOFException("the multipart body ended unexpectedly");
+		if (this.buffer[this.head] == '-' && this.buffer[this.head + 1] == '-') {
+			this.finished = true;
+			return null;
+		}
+		var headersEnd = this.indexOfWithin(HEADERS_END, MAXIMUM_HEADERS_SIZE);
+		// the block starts with the line break that ends the boundary line, which is harmless
+		var headers = this.parseHeaders(new String(this.buffer, this.head, headersEnd - this.head,
+				StandardCharsets.UTF_8));
+		this.head = headersEnd + HEADERS_END.length;
+		this.current = new PartInputStream();
+		var disposition = ContentDisposition.parse(headers.getFirst(HttpHeaders.CONTENT_DISPOSITION));
+		return new Part(disposition.getName(), disposition.getFilename(), headers.getFirst(HttpHeaders.CONTENT_TYPE),
+				this.current);
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.in.close();
+	}
+
+	private HttpHeaders parseHeaders(String block) {
+		var headers = new HttpHeaders();
+		for (var line : block.split("\r\n")) {
+			var colon = line.indexOf(':');
+			if (colon > 0)
+				headers.add(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+		}
+		Assert.state(headers.containsKey(HttpHeaders.CONTENT_DISPOSITION),
+				"every part must have a " + HttpHeaders.CONTENT_DISPOSITION + " header");
+		return headers;
+	}
+
+	/* finds the pattern, reading more if need be, as long as it starts within the limit */
+	private int indexOfWithin(byte[] pattern, int limit) throws IOException {
+		while (true) {
+			var index = this.indexOf(pattern);
+			if (index >= 0)
+				return index;
+			Assert.state(this.tail - this.head < limit, "the multipart headers are too large");
+			if (!this.fill())
+				throw new EOFException("the multipart body ended in the middle of the headers");
+		}
+	}
+
+	private boolean ensureAvailable(int count) throws IOException {
+		while (this.tail - this.head < count)
+			if (!this.fill())
+				return false;
+		return true;
+	}
+
+	/* moves whatever hasn't been consumed to the front of the buffer and reads more */
+	private boolean fill() throws IOException {
+		if (this.head > 0) {
+			System.arraycopy(this.buffer, this.head, this.buffer, 0, this.tail - this.head);
+			this.tail -= this.head;
+			this.head = 0;
+		}
+		if (this.tail == this.buffer.length)
+			return true;
+		var count = this.in.read(this.buffer, this.tail, this.buffer.length - this.tail);
+		if (count == -1)
+			return false;
+		this.size += count;
+		if (this.size > this.maximumSize)
+			throw new MaxUploadSizeExceededException(this.maximumSize);
+		this.tail += count;
+		return true;
+	}
+
+	private int indexOf(byte[] pattern) {
+		var first = pattern[0];
+		var last = this.tail - pattern.length;
+		outer: for (var i = this.head; i <= last; i++) {
+			if (this.buffer[i] != first)
+				continue;
+			for (var j = 1; j < pattern.length; j++)
+				if (this.buffer[i + j] != pattern[j])
+					continue outer;
+			return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * @param name the name of the form field.
+	 * @param filename the name of the file, if the part is a file.
+	 * @param contentType the content type the client claims the part has, if any.
+	 */
+	record Part(String name, String filename, String contentType, InputStream body) {
+	}
+
+	/**
+	 * the body of a single part, which ends where the next delimiter begins. bytes that
+	 * might be the beginning of a delimiter are held back until we know for sure.
+	 */
+	private class PartInputStream extends InputStream {
+
+		private boolean ended;
+
+		@Override
+		public int read() throws IOException {
+			var single = new byte[1];
+			var count = this.read(single, 0, 1);
+			return count == -1 ? -1 : single[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (this.ended || current != this)
+				return -1;
+			if (len == 0)
+				return 0;
+			while (true) {
+				var index = indexOf(delimiter);
+				var available = index >= 0 ? index - head : tail - head - (delimiter.length - 1);
+				if (index == head) {
+					head += delimiter.length;
+					this.ended = true;
+					return -1;
+				}
+				if (available > 0) {
+					var count = Math.min(len, available);
+					System.arraycopy(buffer, head, b, off, count);
+					head += count;
+					return count;
+				}
+				if (!fill())
+					throw new EOFException("the multipart body ended before the closing boundary");
+			}
+		}
+
+		void skipRemaining() throws IOException {
+			var scratch = new byte[8192];
+			while (this.read(scratch, 0, scratch.length) != -1) {
+				// keep going
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,45 @@
+package com.joshlong.mogul.api.managedfiles;
+
+import org.springframework.util.Assert;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * a fixed number of reusable byte arrays, each large enough to hold a single part of a
+ * multipart upload. callers block until a buffer is free, which also bounds the number of
+ * parts in flight at any given moment, no matter how many uploads are running.
+ */
+class PartBuffers {
+
+	private final Queue<byte[]> buffers = new ConcurrentLinkedQueue<>();
+
+	private final Semaphore permits;
+
+	private final int partSize;
+
+	PartBuffers(int count, int partSize) {
+		Assert.state(count > 0, "there must be at least one part buffer");
+		Assert.state(partSize > 0, "the part size must be greater than zero");
+		this.permits = new Semaphore(count, true);
+		this.partSize = partSize;
+	}
+
+	int partSize() {
+		return this.partSize;
+	}
+
+	byte[] acquire() throws InterruptedException {
+		this.permits.acquire();
+		var buffer = this.buffers.poll();
+		// buffers are allocated lazily, but never more than there are permits
+		return buffer != null ? buffer : new byte[this.partSize];
+	}
+
+	void release(byte[] buffer) {
+		this.buffers.offer(buffer);
+		this.permits.release();
+	}
+
+}
@@ -0,0 +1,589 @@
+package com.joshlong.mogul.api.managedfiles;
+
+import com.joshlong.mogul.api.ApiProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.MediaType;
+import org.springframework.util.Assert;
+import org.springframework.util.unit.DataSize;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.UploadPartPresignRequest;
+
+import java.io.*;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * the {@link Storage storage engine} that keeps everything in Amazon S3.
+ */
+class S3Storage implements Storage {
+
+	private static final DataSize MINIMUM_PART_SIZE = DataSize.ofMegabytes(5);
+
+	private static final DataSize MAXIMUM_SINGLE_COPY_SIZE = DataSize.ofGigabytes(5);
+
+	private static final int MAXIMUM_KEYS_PER_DELETE = 1000;
+
+	private static final long MAXIMUM_PARTS = 10_000;
+
+	private static final Duration PRESIGNED_URL_LIFETIME = Duration.ofHours(1);
+
+	private final Logger log = LoggerFactory.getLogger(getClass());
+
+	private final S3Client s3;
+
+	private final S3Presigner presigner;
+
+	private final PartBuffers partBuffers;
+
+	private final int parallelism;
+
+	private final long copyThreshold;
+
+	S3Storage(S3Client s3, S3Presigner presigner, ApiProperties properties) {
+		this.s3 = s3;
+		this.presigner = presigner;
+		var multipart = properties.managedFiles().s3().multipart();
+		Assert.notNull(multipart, "you must configure the multipart upload settings");
+		var partSize = multipart.partSize().toBytes();
+		Assert.state(partSize >= MINIMUM_PART_SIZE.toBytes() && partSize <= Integer.MAX_VALUE,
+				"the multipart upload part size must be at least " + MINIMUM_PART_SIZE);
+		this.parallelism = multipart.parallelism();
+		this.copyThreshold = multipart.copyThreshold().toBytes();
+		Assert.state(this.copyThreshold <= MAXIMUM_SINGLE_COPY_SIZE.toBytes(),
+				"the multipart copy threshold must be no more than " + MAXIMUM_SINGLE_COPY_SIZE);
+		this.partBuffers = new PartBuffers(this.parallelism, (int) partSize);
+	}
+
+	@Override
+	public void remove(String bucket, String objectName) {
+		try {
+			var delete = DeleteObjectRequest.builder().bucket(bucket).key(objectName).build();
+			this.s3.deleteObject(delete);
+		} //
+		catch (NoSuchBucketException e) {
+			this.log.trace("the bucket [{}] does not exist, so there's nothing to remove", bucket);
+		}
+	}
+
+	/*
+	 * S3 deletes up to a thousand keys in a single request. in quiet mode it only tells us
+	 * about the keys it couldn't delete.
+	 */
+	@Override
+	public void remove(String bucket, Collection<String> objectNames) {
+		var keys = new ArrayList<>(objectNames);
+		for (var start = 0; start < keys.size(); start += MAXIMUM_KEYS_PER_DELETE) {
+			var objects = keys.subList(start, Math.min(keys.size(), start + MAXIMUM_KEYS_PER_DELETE))
+				.stream()
+				.map(key -> ObjectIdentifier.builder().key(key).build())
+				.toList();
+			var request = DeleteObjectsRequest.builder()
+				.bucket(bucket)
+				.delete(Delete.builder().objects(objects).quiet(true).build())
+				.build();
+			try {
+				var response = this.s3.deleteObjects(request);
+				if (response.hasErrors() && !response.errors().isEmpty()) {
+					var error = response.errors().getFirst();
+					throw new IllegalStateException("could not remove " + response.errors().size() + " objects from ["
+							+ bucket + "], including [" + error.key() + "]: " + error.code() + " " + error.message());
+				}
+			} //
+			catch (NoSuchBucketException e) {
+				this.log.trace("the bucket [{}] does not exist, so there's nothing to remove", bucket);
+				return;
+			}
+		}
+	}
+
+	/*
+	 * reads N-mb sized parts from the resource and uploads as many of them at the same time
+	 * as there are part buffers available. the buffers are shared by all uploads, so the
+	 * memory dedicated to uploads stays fixed no matter how many are running. returns the
+	 * ETag of the stored object.
+	 */
+	private String doWriteForLargeFiles(String bucketName, String keyName, Resource resource, MediaType mediaType)
+			throws Exception {
+		try (var inputStream = resource.getInputStream()) {
+			var firstBuffer = this.partBuffers.acquire();
+			var firstRead = 0;
+			try {
+				firstRead = this.readPart(inputStream, firstBuffer);
+			} //
+			catch (IOException exception) {
+				this.partBuffers.release(firstBuffer);
+				throw exception;
+			}
+			if (firstRead < this.partBuffers.partSize()) {
+				// it all fits in a single part, so there's no point in a multipart upload
+				try {
+					return this.doWriteForSmallFiles(bucketName, keyName, firstBuffer, firstRead, mediaType);
+				} //
+				finally {
+					this.partBuffers.release(firstBuffer);
+				}
+			}
+			var builder = CreateMultipartUploadRequest.builder().bucket(bucketName).key(keyName);
+			if (mediaType != null)
+				builder = builder.contentType(mediaType.toString());
+			var createMultipartUploadRequest = builder.build();
+			var uploadId = (String) null;
+			try {
+				uploadId = this.s3.createMultipartUpload(createMultipartUploadRequest).uploadId();
+			} //
+			catch (RuntimeException exception) {
+				this.partBuffers.release(firstBuffer);
+				throw exception;
+			}
+			try {
+				var completedParts = this.uploadParts(bucketName, keyName, uploadId, inputStream, firstBuffer,
+						firstRead);
+				var completedMultipartUpload = CompletedMultipartUpload.builder().parts(completedParts).build();
+				var completeMultipartUploadRequest = CompleteMultipartUploadRequest.builder()
+					.bucket(bucketName)
+					.key(keyName)
+					.uploadId(uploadId)
+					.multipartUpload(completedMultipartUpload)
+					.build();
+				return this.s3.completeMultipartUpload(completeMultipartUploadRequest).eTag();
+			} //
+			catch (Exception exception) {
+				this.abortMultipartUpload(bucketName, keyName, uploadId);
+				throw exception;
+			}
+		}
+	}
+
+	private String doWriteForSmallFiles(String bucketName, String keyName, byte[] buffer, int length,
+			MediaType mediaType) {
+		var builder = PutObjectRequest.builder().bucket(bucketName).key(keyName);
+		if (mediaType != null)
+			builder = builder.contentType(mediaType.toString());
+		return this.s3.putObject(builder.build(), this.requestBody(buffer, length)).eTag();
+	}
+
+	/*
+	 * the first part has already been read by the caller. every part after that is read
+	 * on this thread, but uploaded on its own virtual thread. a part holds on to its buffer
+	 * until it has been uploaded, so we can never have more parts in flight than there are
+	 * buffers.
+	 */
+	private List<CompletedPart> uploadParts(String bucketName, String keyName, String uploadId,
+			InputStream inputStream, byte[] firstBuffer, int firstRead) throws Exception {
+		var failure = new AtomicReference<Exception>();
+		var futures = new ArrayList<Future<CompletedPart>>();
+		try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			var buffer = firstBuffer;
+			var bytesRead = firstRead;
+			var partNumber = 1;
+			while (true) {
+				var part = partNumber;
+				var partBuffer = buffer;
+				var partLength = bytesRead;
+				futures.add(executor.submit(() -> {
+					try {
+						Assert.state(failure.get() == null, "another part of this upload has already failed");
+						this.log.trace("uploading part [{}] of [{}/{}]", part, bucketName, keyName);
+						var uploadPartRequest = UploadPartRequest.builder()
+							.bucket(bucketName)
+							.key(keyName)
+							.uploadId(uploadId)
+							.partNumber(part)
+							.build();
+						var etag = this.s3.uploadPart(uploadPartRequest, this.requestBody(partBuffer, partLength))
+							.eTag();
+						return CompletedPart.builder().partNumber(part).eTag(etag).build();
+					} //
+					catch (RuntimeException exception) {
+						failure.compareAndSet(null, exception);
+						throw exception;
+					} //
+					finally {
+						this.partBuffers.release(partBuffer);
+					}
+				}));
+				if (bytesRead < this.partBuffers.partSize() || failure.get() != null)
+					break;
+				buffer = this.partBuffers.acquire();
+				try {
+					bytesRead = this.readPart(inputStream, buffer);
+				} //
+				catch (IOException exception) {
+					this.partBuffers.release(buffer);
+					throw exception;
+				}
+				if (bytesRead == 0) {
+					this.partBuffers.release(buffer);
+					break;
+				}
+				partNumber += 1;
+			}
+		} // closing the executor waits for every part to finish, one way or another
+		if (failure.get() != null)
+			throw new IllegalStateException("could not upload all the parts for [" + bucketName + "/" + keyName + "]",
+					failure.get());
+		var completedParts = new ArrayList<CompletedPart>(futures.size());
+		for (var future : futures)
+			completedParts.add(future.get());
+		return completedParts;
+	}
+
+	private void abortMultipartUpload(String bucketName, String keyName, String uploadId) {
+		try {
+			this.s3.abortMultipartUpload(
+					AbortMultipartUploadRequest.builder().bucket(bucketName).key(keyName).uploadId(uploadId).build());
+			this.log.warn("aborted the multipart upload [{}] for [{}/{}]", uploadId, bucketName, keyName);
+		} //
+		catch (Throwable throwable) {
+			this.log.error("could not abort the multipart upload [{}] for [{}/{}]", uploadId, bucketName, keyName,
+					throwable);
+		}
+	}
+
+	/*
+	 * the SDK asks the provider for a new stream on every attempt, so retries work without
+	 * our having to copy the buffer.
+	 */
+	private RequestBody requestBody(byte[] buffer, int length) {
+		return RequestBody.fromContentProvider(() -> new ByteArrayInputStream(buffer, 0, length), length,
+				MediaType.APPLICATION_OCTET_STREAM_VALUE);
+	}
+
+	/* fills the buffer unless the stream runs out first */
+	private int readPart(InputStream inputStream, byte[] buffer) throws IOException {
+		return inputStream.readNBytes(buffer, 0, buffer.length);
+	}
+
+	@Override
+	public String write(String bucket, String objectName, Resource resource, MediaType mediaType) {
+		try {
+			this.log.info("started executing an S3 PUT for [{}/{}] on thread [{}]", bucket, objectName,
+					Thread.currentThread());
+			this.ensureBucketExists(bucket);
+			return this.doWriteForLargeFiles(bucket, objectName, resource, mediaType);
+		} //
+		catch (Throwable throwable) {
+			throw new RuntimeException(throwable);
+		}
+
+	}
+
+	private boolean bucketExists(String bucketName) {
+		var buckets = this.s3.listBuckets();
+		if (buckets.hasBuckets()) {
+			return buckets.buckets().stream().anyMatch(bucket -> bucket.name().equalsIgnoreCase(bucketName));
+		}
+		return false;
+	}
+
+	/*
+	 * much faster than downloading the bytes and trying to write them back up again! a
+	 * single CopyObject can't handle more than 5GB, and is slow well before then, so larger
+	 * objects are copied in parts, in parallel.
+	 */
+	@Override
+	public void copy(String src, String dest, String key, MediaType newContentType) {
+		var head = this.s3.headObject(HeadObjectRequest.builder().bucket(src).key(key).build());
+		if (head.contentLength() > this.copyThreshold) {
+			var contentType = newContentType != null ? newContentType.toString() : head.contentType();
+			this.multipartCopy(src, dest, key, contentType, head.eTag(), head.contentLength());
+			return;
+		}
+		var copyRequestBuilder = CopyObjectRequest.builder()
+			.metadataDirective("REPLACE")
+			.sourceBucket(src)
+			.sourceKey(key)
+			.destinationBucket(dest)
+			.destinationKey(key);
+		copyRequestBuilder = newContentType == null ? copyRequestBuilder
+				: copyRequestBuilder.contentType(newContentType.toString());
+		var result = copyRequestBuilder.build();
+		this.s3.copyObject(result);
+	}
+
+	private void multipartCopy(String src, String dest, String key, String contentType, String eTag, long length) {
+		// S3 won't have more than 10,000 parts in an upload
+		var partSize = Math.max(this.partBuffers.partSize(), (length + MAXIMUM_PARTS - 1) / MAXIMUM_PARTS);
+		var createRequest = CreateMultipartUploadRequest.builder().bucket(dest).key(key);
+		if (contentType != null)
+			createRequest = createRequest.contentType(contentType);
+		var uploadId = this.s3.createMultipartUpload(createRequest.build()).uploadId();
+		try {
+			var permits = new Semaphore(this.parallelism);
+			var failure = new AtomicReference<Exception>();
+			var futures = new ArrayList<Future<CompletedPart>>();
+			try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+				var partNumber = 1;
+				for (var start = 0L; start < length && failure.get() == null; start += partSize, partNumber++) {
+					var part = partNumber;
+					var range = "bytes=" + start + "-" + (Math.min(length, start + partSize) - 1);
+					permits.acquire();
+					futures.add(executor.submit(() -> {
+						try {
+							var request = UploadPartCopyRequest.builder()
+								.sourceBucket(src)
+								.sourceKey(key)
+								.copySourceIfMatch(eTag)
+								.copySourceRange(range)
+								.destinationBucket(dest)
+								.destinationKey(key)
+								.uploadId(uploadId)
+								.partNumber(part)
+								.build();
+							var partETag = this.s3.uploadPartCopy(request).copyPartResult().eTag();
+							return CompletedPart.builder().partNumber(part).eTag(partETag).build();
+						} //
+						catch (RuntimeException exception) {
+							failure.compareAndSet(null, exception);
+							throw exception;
+						} //
+						finally {
+							permits.release();
+						}
+					}));
+				}
+			}
+			if (failure.get() != null)
+				throw failure.get();
+			var parts = new ArrayList<CompletedPart>(futures.size());
+			for (var future : futures)
+				parts.add(future.get());
+			this.s3.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+				.bucket(dest)
+				.key(key)
+				.uploadId(uploadId)
+				.multipartUpload(CompletedMultipartUpload.builder().parts(parts).build())
+				.build());
+			this.log.debug("copied [{}/{}] to [{}/{}] in {} parts", src, key, dest, key, parts.size());
+		} //
+		catch (Exception exception) {
+			this.abortMultipartUpload(dest, key, uploadId);
+			throw new RuntimeException("could not copy [" + src + "/" + key + "] to [" + dest + "/" + key + "]",
+					exception);
+		}
+	}
+
+	@Override
+	public boolean exists(String bucket, String key) {
+		var request = HeadObjectRequest.builder().bucket(bucket).key(key).build();
+		try {
+			this.s3.headObject(request);
+			return true;
+		}
+		catch (Throwable throwable) {
+			return false;
+		}
+	}
+
+	@Override
+	public StoredObject head(String bucket, String key) {
+		try {
+			var head = this.s3.headObject(HeadObjectRequest.builder().bucket(bucket).key(key).build());
+			return new StoredObject(head.eTag(), head.contentLength(), head.contentType(), head.lastModified());
+		} //
+		catch (NoSuchKeyException | NoSuchBucketException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public Resource read(String bucket, String objectName) {
+		try {
+			var getObjectRequest = GetObjectRequest.builder().bucket(bucket).key(objectName).build();
+			var inputStream = this.s3.getObject(getObjectRequest);
+			return new InputStreamResource(new BufferedInputStream(inputStream));
+		} //
+		catch (Throwable throwable) {
+			throw new RuntimeException("could not read [" + bucket + "/" + objectName + "]", throwable);
+		}
+	}
+
+	/*
+	 * reads only the bytes between start and end, inclusive, straight from S3, so that
+	 * seeking around in a large file doesn't mean downloading all of it. the request is
+	 * pinned to the ETag, so S3 refuses it rather than serve bytes from another version.
+	 */
+	@Override
+	public Resource read(String bucket, String objectName, long start, long end, String eTag) {
+		Assert.state(start >= 0 && end >= start, "the range [" + start + "-" + end + "] is not valid");
+		try {
+			var getObjectRequest = GetObjectRequest.builder()
+				.bucket(bucket)
+				.key(objectName)
+				.range("bytes=" + start + "-" + end)
+				.ifMatch(eTag)
+				.build();
+			var inputStream = this.s3.getObject(getObjectRequest);
+			return new InputStreamResource(new BufferedInputStream(inputStream));
+		} //
+		catch (Throwable throwable) {
+			throw new RuntimeException("could not read bytes [" + start + "-" + end + "] of [" + bucket + "/"
+					+ objectName + "] with the ETag " + eTag, throwable);
+		}
+	}
+
+	/*
+	 * downloads the object into the given file. objects larger than a single part are
+	 * split into byte ranges that are fetched in parallel, each written directly to its
+	 * position in a preallocated file. every range is pinned to the ETag we saw at the
+	 * start, so we can't stitch together a file from two different versions of an object.
+	 */
+	@Override
+	public File download(String bucket, String objectName, File destination) {
+		try {
+			var head = this.s3.headObject(HeadObjectRequest.builder().bucket(bucket).key(objectName).build());
+			var length = head.contentLength();
+			var rangeSize = (long) this.partBuffers.partSize();
+			try (var file = new RandomAccessFile(destination, "rw"); var channel = file.getChannel()) {
+				file.setLength(length);
+				if (length <= rangeSize) {
+					this.downloadRange(bucket, objectName, head.eTag(), channel, 0, length);
+				} //
+				else {
+					this.downloadRanges(bucket, objectName, head.eTag(), channel, length, rangeSize);
+				}
+			}
+			this.log.debug("downloaded [{}/{}] ({} bytes) to [{}]", bucket, objectName, length,
+					destination.getAbsolutePath());
+			return destination;
+		} //
+		catch (Throwable throwable) {
+			throw new RuntimeException("could not download [" + bucket + "/" + objectName + "] to ["
+					+ destination.getAbsolutePath() + "]", throwable);
+		}
+	}
+
+	private void downloadRanges(String bucket, String objectName, String eTag, FileChannel channel, long length,
+			long rangeSize) throws Exception {
+		var permits = new Semaphore(this.parallelism);
+		var failure = new AtomicReference<Exception>();
+		try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (var start = 0L; start < length && failure.get() == null; start += rangeSize) {
+				var rangeStart = start;
+				var rangeLength = Math.min(rangeSize, length - start);
+				permits.acquire();
+				executor.submit(() -> {
+					try {
+						this.downloadRange(bucket, objectName, eTag, channel, rangeStart, rangeLength);
+					} //
+					catch (Exception exception) {
+						failure.compareAndSet(null, exception);
+					} //
+					finally {
+						permits.release();
+					}
+				});
+			}
+		}
+		if (failure.get() != null)
+			throw failure.get();
+	}
+
+	private void downloadRange(String bucket, String objectName, String eTag, FileChannel channel, long start,
+			long length) throws IOException {
+		if (length == 0)
+			return;
+		var request = GetObjectRequest.builder()
+			.bucket(bucket)
+			.key(objectName)
+			.range("bytes=" + start + "-" + (start + length - 1))
+			.ifMatch(eTag)
+			.build();
+		try (var inputStream = this.s3.getObject(request); var source = Channels.newChannel(inputStream)) {
+			var position = start;
+			var remaining = length;
+			while (remaining > 0) {
+				var transferred = channel.transferFrom(source, position, remaining);
+				if (transferred <= 0)
+					throw new EOFException("the range starting at " + start + " of [" + bucket + "/" + objectName
+							+ "] ended " + remaining + " bytes early");
+				position += transferred;
+				remaining -= transferred;
+			}
+		}
+	}
+
+	/*
+	 * the client PUTs each part to its presigned URL, so the bytes never touch this node.
+	 * the URLs expire after an hour.
+	 */
+	@Override
+	public DirectUpload startDirectUpload(String bucket, String objectName, MediaType mediaType, long size) {
+		this.ensureBucketExists(bucket);
+		var partSize = Math.max(this.partBuffers.partSize(), (size + MAXIMUM_PARTS - 1) / MAXIMUM_PARTS);
+		var parts = (int) Math.max(1, (size + partSize - 1) / partSize);
+		var createRequest = CreateMultipartUploadRequest.builder().bucket(bucket).key(objectName);
+		if (mediaType != null)
+			createRequest = createRequest.contentType(mediaType.toString());
+		var uploadId = this.s3.createMultipartUpload(createRequest.build()).uploadId();
+		try {
+			var urls = new ArrayList<URI>(parts);
+			for (var part = 1; part <= parts; part++) {
+				var uploadPartRequest = UploadPartRequest.builder()
+					.bucket(bucket)
+					.key(objectName)
+					.uploadId(uploadId)
+					.partNumber(part)
+					.build();
+				var presignRequest = UploadPartPresignRequest.builder()
+					.signatureDuration(PRESIGNED_URL_LIFETIME)
+					.uploadPartRequest(uploadPartRequest)
+					.build();
+				urls.add(this.presigner.presignUploadPart(presignRequest).url().toURI());
+			}
+			this.log.debug("started a direct upload [{}] of {} parts for [{}/{}]", uploadId, parts, bucket,
+					objectName);
+			return new DirectUpload(uploadId, partSize, urls);
+		} //
+		catch (Exception exception) {
+			this.abortMultipartUpload(bucket, objectName, uploadId);
+			throw new RuntimeException("could not start a direct upload for [" + bucket + "/" + objectName + "]",
+					exception);
+		}
+	}
+
+	@Override
+	public StoredObject completeDirectUpload(String bucket, String objectName, String uploadId,
+			List<String> partETags) {
+		var parts = new ArrayList<CompletedPart>(partETags.size());
+		for (var i = 0; i < partETags.size(); i++)
+			parts.add(CompletedPart.builder().partNumber(i + 1).eTag(partETags.get(i)).build());
+		this.s3.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+			.bucket(bucket)
+			.key(objectName)
+			.uploadId(uploadId)
+			.multipartUpload(CompletedMultipartUpload.builder().parts(parts).build())
+			.build());
+		return this.head(bucket, objectName);
+	}
+
+	@Override
+	public void abortDirectUpload(String bucket, String objectName, String uploadId) {
+		this.abortMultipartUpload(bucket, objectName, uploadId);
+	}
+
+	private void ensureBucketExists(String bucketName) {
+		if (bucketExists(bucketName)) {
+			this.log.trace("the bucket named [{}] already exists", bucketName);
+			return;
+		}
+		this.log.info("attempting to create the bucket called [{}]", bucketName);
+		this.s3.createBucket(CreateBucketRequest.builder().bucket(bucketName).build());
+	}
+
+}
@@ -0,0 +1,34 @@
+package com.joshlong.mogul.api.managedfiles;
+
+import com.joshlong.mogul.api.ApiProperties;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.Assert;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+
+import java.util.Objects;
+
+/**
+ * installs the {@link Storage storage engine} selected with
+ * {@code mogul.managed-files.storage}.
+ */
+@Configuration
+class StorageConfiguration {
+
+	@Bean
+	Storage storage(ObjectProvider<S3Client> s3, ObjectProvider<S3Presigner> presigner, ApiProperties properties) {
+		var managedFiles = properties.managedFiles();
+		var engine = Objects.requireNonNullElse(managedFiles.storage(), ApiProperties.ManagedFiles.StorageEngine.S3);
+		return switch (engine) {
+			case S3 -> new S3Storage(s3.getObject(), presigner.getObject(), properties);
+			case FILESYSTEM -> {
+				var fileSystem = managedFiles.fileSystem();
+				Assert.notNull(fileSystem, "you must configure mogul.managed-files.file-system.root");
+				yield new FileSystemStorage(fileSystem.root());
+			}
+		};
+	}
+
+}
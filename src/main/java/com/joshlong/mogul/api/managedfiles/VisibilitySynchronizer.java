@@ -0,0 +1,89 @@
+package com.joshlong.mogul.api.managedfiles;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * synchronizes the visible copies of {@link ManagedFile managed files} in the background.
+ * requests for a file that come in while it's waiting, or while it's being synchronized,
+ * are coalesced: the file gets synchronized once more, from its latest state, no matter
+ * how many requests there were. different files are synchronized concurrently.
+ * <p>
+ * nothing here survives a restart, and a failure is only logged: it's up to whoever
+ * makes the requests to notice, from the database, which files are still out of date and
+ * to ask again.
+ */
+class VisibilitySynchronizer implements AutoCloseable {
+
+	private final Logger log = LoggerFactory.getLogger(getClass());
+
+	// a file has an entry for as long as it's queued or being synchronized. the flag says
+	// whether it needs (another) pass.
+	private final ConcurrentHashMap<Long, AtomicBoolean> dirty = new ConcurrentHashMap<>();
+
+	private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+	private final Semaphore permits;
+
+	private final Consumer<Long> synchronizer;
+
+	VisibilitySynchronizer(int concurrency, Consumer<Long> synchronizer) {
+		Assert.state(concurrency > 0, "the concurrency must be greater than zero");
+		this.permits = new Semaphore(concurrency);
+		this.synchronizer = synchronizer;
+	}
+
+	void request(Long managedFileId) {
+		var scheduled = new AtomicBoolean();
+		this.dirty.compute(managedFileId, (id, flag) -> {
+			if (flag == null) {
+				scheduled.set(true);
+				return new AtomicBoolean(true);
+			}
+			flag.set(true);
+			return flag;
+		});
+		if (scheduled.get())
+			this.executor.submit(() -> this.run(managedFileId));
+	}
+
+	@Override
+	public void close() {
+		this.executor.shutdownNow();
+	}
+
+	private void run(Long managedFileId) {
+		try {
+			this.permits.acquire();
+			try {
+				do {
+					this.dirty.get(managedFileId).set(false);
+					try {
+						this.synchronizer.accept(managedFileId);
+					} //
+					catch (Throwable throwable) {
+						this.log.error("could not synchronize the visibility of managed file #{}", managedFileId,
+								throwable);
+					}
+				} // keep going only if somebody asked again while we were busy
+				while (this.dirty.computeIfPresent(managedFileId, (id, flag) -> flag.get() ? flag : null) != null);
+			} //
+			finally {
+				this.permits.release();
+			}
+		} //
+		catch (InterruptedException e) {
+			this.dirty.remove(managedFileId);
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
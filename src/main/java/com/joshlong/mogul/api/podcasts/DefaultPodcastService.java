@@ -1,5 +1,6 @@
 package com.joshlong.mogul.api.podcasts;
 
+import com.joshlong.mogul.api.Publication;
 import com.joshlong.mogul.api.compositions.Composition;
 import com.joshlong.mogul.api.compositions.CompositionService;
 import com.joshlong.mogul.api.managedfiles.CommonMediaTypes;
@@ -13,12 +14,16 @@ import com.joshlong.mogul.api.notifications.NotificationEvents;
 import com.joshlong.mogul.api.podcasts.production.MediaNormalizer;
 import com.joshlong.mogul.api.transcription.Transcriber;
 import com.joshlong.mogul.api.transcription.TranscriptProcessedEvent;
+import com.joshlong.mogul.api.utils.FileUtils;
 import com.joshlong.mogul.api.utils.JdbcUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.event.EventListener;
-import org.springframework.core.io.Resource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.data.domain.KeysetScrollPosition;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Window;
 import org.springframework.jdbc.core.simple.JdbcClient;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.modulith.events.ApplicationModuleListener;
@@ -29,31 +34,60 @@ import org.springframework.util.StringUtils;
 
 import java.io.Serializable;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.stream.Collectors;
+import java.util.function.Function;
 
 /**
  * This service uses a caching scheme that you need to be aware of when effecting changes.
- * All podcasts from all moguls are stored, live, in this class. when there is an update,
- * the entire graph for the mogul is reloaded and kept in {@link ConcurrentHashMap}. The
- * key is to make sure all updates to the SQL DB result in a refreshing of the mogul
- * object graph kept in memory.
+ * reads are served from an in-memory {@link PodcastGraph snapshot} of each mogul's
+ * podcasts, episodes, and segments, kept by {@link PodcastGraphs}. The key is to make
+ * sure that every update to the SQL DB is followed by an
+ * {@link PodcastGraphs#invalidate(Long) invalidation} of the mogul's snapshot, so that
+ * it's loaded again the next time somebody asks.
  */
 @Service
 @Transactional
 class DefaultPodcastService implements PodcastService {
 
-	private final Logger log = LoggerFactory.getLogger(getClass());
+	/**
+	 * how far apart the segments of an episode are numbered, so that a segment can be
+	 * added, or moved, by changing only its own number.
+	 */
+	private static final int SEGMENT_ORDER_GAP = 1024;
+
+	private static final String REFRESH_COMPLETENESS_SQL = """
+			update podcast_episode pe
+			set complete = c.complete
+			from (
+				select e.id,
+					btrim(coalesce(e.title, '')) <> ''
+					and btrim(coalesce(e.description, '')) <> ''
+					and exists (
+						select 1 from managed_file g, managed_file pg
+						where g.id = e.graphic and pg.id = e.produced_graphic and g.written and pg.written
+					)
+					and exists (select 1 from podcast_episode_segment pes where pes.podcast_episode = e.id)
+					and not exists (
+						select 1 from podcast_episode_segment pes
+						left join managed_file a on a.id = pes.segment_audio_managed_file
+						left join managed_file pa on pa.id = pes.produced_segment_audio_managed_file
+						where pes.podcast_episode = e.id and not coalesce(a.written and pa.written, false)
+					) as complete
+				from podcast_episode e
+				where e.id = ?
+			) c
+			where pe.id = c.id and pe.complete is distinct from c.complete
+			returning pe.complete
+			""";
 
-	private final PodcastRowMapper podcastRowMapper;
+	private final Logger log = LoggerFactory.getLogger(getClass());
 
 	private final CompositionService compositionService;
 
-	private final SegmentRowMapper episodeSegmentRowMapper;
-
 	private final ManagedFileService managedFileService;
 
+	private final Function<Long, ManagedFile> managedFiles;
+
 	private final MediaNormalizer mediaNormalizer;
 
 	private final JdbcClient db;
@@ -64,47 +98,41 @@ class DefaultPodcastService implements PodcastService {
 
 	private final MogulService mogulService;
 
+	private final PodcastGraphs graphs;
+
 	DefaultPodcastService(CompositionService compositionService, MediaNormalizer mediaNormalizer, JdbcClient db,
 			ManagedFileService managedFileService, ApplicationEventPublisher publisher, Transcriber transcriber,
-			MogulService mogulService) {
+			MogulService mogulService, PodcastGraphs graphs) {
 		this.compositionService = compositionService;
 		this.db = db;
 		this.mediaNormalizer = mediaNormalizer;
 		this.managedFileService = managedFileService;
+		this.managedFiles = this.managedFileService::getManagedFile;
 		this.publisher = publisher;
 		this.transcriber = transcriber;
-		this.podcastRowMapper = new PodcastRowMapper();
-		this.episodeSegmentRowMapper = new SegmentRowMapper(this.managedFileService::getManagedFile);
 		this.mogulService = mogulService;
+		this.graphs = graphs;
 	}
 
 	@Override
 	public Map<Long, List<Segment>> getPodcastEpisodeSegmentsByEpisodes(Collection<Long> episodes) {
 		if (episodes.isEmpty())
 			return new HashMap<>();
-		var idsAsString = episodes.stream().map(e -> Long.toString(e)).collect(Collectors.joining(", "));
-		var segments = db
-			.sql("select * from podcast_episode_segment pes where pes.podcast_episode in (" + idsAsString + ") ")
-			.query(this.episodeSegmentRowMapper)
-			.list();
 		var episodeToSegmentsMap = new HashMap<Long, List<Segment>>();
-		for (var s : segments) {
-			episodeToSegmentsMap.computeIfAbsent(s.episodeId(), sk -> new ArrayList<>()).add(s);
-		}
+		this.graphs.forEpisodes(episodes).forEach((episodeId, graph) -> {
+			var segments = graph.segmentsByEpisode(episodeId, this.managedFiles);
+			if (!segments.isEmpty())
+				episodeToSegmentsMap.put(episodeId, new ArrayList<>(segments));
+		});
 		return episodeToSegmentsMap;
 	}
 
 	@Override
 	public List<Segment> getPodcastEpisodeSegmentsByEpisode(Long episodeId) {
-		var sql = " select * from podcast_episode_segment where podcast_episode = ? order by sequence_number ASC ";
-		var episodeSegmentsFromDb = this.db //
-			.sql(sql) //
-			.params(episodeId) //
-			.query(this.episodeSegmentRowMapper) //
-			.stream()//
-			.sorted(Comparator.comparingInt(Segment::order))//
-			.toList();
-		return new ArrayList<>(episodeSegmentsFromDb);
+		var graph = this.graphs.forEpisode(episodeId);
+		if (graph == null)
+			return new ArrayList<>();
+		return new ArrayList<>(graph.segmentsByEpisode(episodeId, this.managedFiles));
 	}
 
 	// todo should i also be doing transcription in this method?
@@ -152,10 +180,10 @@ class DefaultPodcastService implements PodcastService {
 					this.db.sql("update podcast_episode  set produced_audio_assets_updated = ? where id = ? ")
 						.params(new Date(), episodeId)
 						.update();
+					this.graphs.invalidateForEpisode(episodeId);
 
 					if (segment.transcribable() && !StringUtils.hasText(segment.transcript())) {
-						this.transcribe(mf.mogulId(), segment.id(), Segment.class,
-								this.managedFileService.read(segment.producedAudio().id()));
+						this.transcribe(mf.mogulId(), segment.id(), Segment.class, segment.producedAudio().id());
 					}
 					updatedFlag.set(true);
 					this.log.debug(
@@ -196,21 +224,20 @@ class DefaultPodcastService implements PodcastService {
 		NotificationEvents.notify(notificationEvent);
 	}
 
+	/**
+	 * an episode is complete once it has a title, a description, its graphics, and at
+	 * least one segment, and all of its graphics and segment audio have been written. the
+	 * database works that out, and we only hear back, and tell anybody, if it changed.
+	 */
 	private void refreshPodcastEpisodeCompleteness(Long episodeId) {
-		var episode = this.getPodcastEpisodeById(episodeId);
-		var mogulId = episode.producedAudio().mogulId(); // hacky.
-		var segments = this.getPodcastEpisodeSegmentsByEpisode(episodeId);
-		var graphicsWritten = episode.graphic().written() && episode.producedGraphic().written();
-		var complete = StringUtils.hasText(episode.title()) && StringUtils.hasText(episode.description())
-				&& graphicsWritten && !segments.isEmpty()
-				&& (segments.stream().allMatch(se -> se.audio().written() && se.producedAudio().written()));
-		this.db.sql("update podcast_episode set complete = ? where id = ? ").params(complete, episode.id()).update();
-		var episodeById = this.getPodcastEpisodeById(episode.id());
-		for (var e : Set.of(new PodcastEpisodeUpdatedEvent(episodeById),
-				new PodcastEpisodeCompletedEvent(mogulId, episodeById))) {
-			this.publisher.publishEvent(e);
-		}
-
+		var flipped = this.db.sql(REFRESH_COMPLETENESS_SQL).param(episodeId).query(Boolean.class).optional();
+		if (flipped.isEmpty())
+			return;
+		this.graphs.invalidateForEpisode(episodeId);
+		var graph = this.graphs.forEpisode(episodeId);
+		var episode = graph.episode(episodeId, this.managedFiles);
+		this.log.debug("podcast episode {} is {} complete", episodeId, flipped.get() ? "now" : "no longer");
+		this.publisher.publishEvent(new PodcastEpisodeCompletedEvent(graph.mogulId(), episode));
 	}
 
 	@ApplicationModuleListener
@@ -225,12 +252,74 @@ class DefaultPodcastService implements PodcastService {
 
 	@Override
 	public Collection<Episode> getPodcastEpisodesByPodcast(Long podcastId) {
-		var episodeRowMapper = new EpisodeRowMapper(this.managedFileService::getManagedFile);
-		return this.db//
-			.sql(" select * from podcast_episode pe where pe.podcast  = ? ") //
-			.param(podcastId)//
-			.query(episodeRowMapper)//
+		var graph = this.graphs.forPodcast(podcastId);
+		if (graph == null)
+			return new ArrayList<>();
+		return new ArrayList<>(graph.episodesByPodcast(podcastId, this.managedFiles));
+	}
+
+	/*
+	 * the database finds the page, newest first, using the index on (podcast, created,
+	 * id), and the snapshot fills it in. the keyset carries created in microseconds, since
+	 * that's what postgres stores and a Date would lose the difference.
+	 */
+	@Override
+	public Window<Episode> getPodcastEpisodesByPodcast(Long podcastId, KeysetScrollPosition position, int count,
+			Boolean complete, Boolean published) {
+		Assert.state(count > 0, "you must ask for at least one episode");
+		var forward = position.scrollsForward();
+		var keys = position.getKeys();
+		var sql = new StringBuilder("""
+				select pe.id, (extract(epoch from pe.created) * 1000000)::bigint as created
+				from podcast_episode pe
+				where pe.podcast = :podcast
+				""");
+		var params = new HashMap<String, Object>();
+		params.put("podcast", podcastId);
+		if (!keys.isEmpty()) {
+			sql.append(" and (pe.created, pe.id) ")
+				.append(forward ? "<" : ">")
+				.append(" (timestamp 'epoch' + :created * interval '1 microsecond', :id) ");
+			params.put("created", ((Number) keys.get("created")).longValue());
+			params.put("id", ((Number) keys.get("id")).longValue());
+		}
+		if (complete != null) {
+			sql.append(" and pe.complete = :complete ");
+			params.put("complete", complete);
+		}
+		if (published != null) {
+			sql.append(published ? " and exists " : " and not exists ").append("""
+					(
+						select 1 from publication pub
+						where pub.payload_class = :payloadClass and pub.payload = pe.id::text and pub.state = :state
+					)
+					""");
+			params.put("payloadClass", Episode.class.getName());
+			params.put("state", Publication.State.PUBLISHED.name());
+		}
+		sql.append(forward ? " order by pe.created desc, pe.id desc " : " order by pe.created, pe.id ")
+			.append(" limit :limit ");
+		// one more than we need, to know whether there's more
+		params.put("limit", count + 1);
+		var page = this.db.sql(sql.toString())
+			.params(params)
+			.query((rs, rowNum) -> Map.<String, Object>of("id", rs.getLong("id"), "created", rs.getLong("created")))
 			.list();
+		var hasNext = page.size() > count;
+		var rows = new ArrayList<>(page.subList(0, Math.min(count, page.size())));
+		if (!forward)
+			Collections.reverse(rows);
+		var graph = this.graphs.forPodcast(podcastId);
+		var episodes = new ArrayList<Episode>();
+		var positions = new ArrayList<ScrollPosition>();
+		for (var row : rows) {
+			var episode = graph == null ? null : graph.episode((Long) row.get("id"), this.managedFiles);
+			if (episode == null)
+				continue;
+			episodes.add(episode);
+			positions.add(ScrollPosition.forward(row));
+		}
+		return Window.from(episodes, positions::get, hasNext);
 	}
 
 	@Override
@@ -241,6 +330,7 @@ class DefaultPodcastService implements PodcastService {
 			.params(mogulId, title)
 			.update(generatedKeyHolder);
 		var id = JdbcUtils.getIdFromKeyHolder(generatedKeyHolder);
+		this.graphs.invalidate(mogulId);
 		var podcast = this.getPodcastById(id.longValue());
 		this.publisher.publishEvent(new PodcastCreatedEvent(podcast));
 		return podcast;
@@ -249,6 +339,7 @@ class DefaultPodcastService implements PodcastService {
 	@Override
 	public Podcast updatePodcast(Long podcastId, String title) {
 		this.db.sql(" update podcast   set title = ? where id = ? ").params(title, podcastId).update();
+		this.graphs.invalidateForPodcast(podcastId);
 		var podcast = this.getPodcastById(podcastId);
 		this.publisher.publishEvent(new PodcastUpdatedEvent(podcast));
 		return podcast;
@@ -284,6 +375,7 @@ class DefaultPodcastService implements PodcastService {
 			.update(kh);
 		var id = JdbcUtils.getIdFromKeyHolder(kh);
 		var episodeId = id.longValue();
+		this.graphs.invalidateForPodcast(podcastId);
 		var episode = this.getPodcastEpisodeById(episodeId);
 		this.publisher.publishEvent(new PodcastEpisodeCreatedEvent(episode));
 		return episode;
@@ -291,47 +383,78 @@ class DefaultPodcastService implements PodcastService {
 
 	@Override
 	public Episode getPodcastEpisodeById(Long episodeId) {
-		var erm = new EpisodeRowMapper(this.managedFileService::getManagedFile);//
-		var res = this.db //
-			.sql("select * from podcast_episode where id =?")//
-			.param(episodeId)//
-			.query(erm) //
-			.list();
-		return res.isEmpty() ? null : res.getFirst();
-	}
-
-	private void updateEpisodeSegmentOrder(Long episodeSegmentId, int order) {
-		this.db //
-			.sql("update podcast_episode_segment set sequence_number = ? where id = ?")
-			.params(order, episodeSegmentId)
-			.update();
+		var graph = this.graphs.forEpisode(episodeId);
+		return graph == null ? null : graph.episode(episodeId, this.managedFiles);
 	}
 
 	private void moveEpisodeSegment(Long episodeId, Long segmentId, int position) {
 		var segments = this.getPodcastEpisodeSegmentsByEpisode(episodeId);
-		var segment = this.getPodcastEpisodeSegmentById(segmentId);
-		var positionOfSegment = segments.indexOf(segment);
+		var positionOfSegment = this.indexOfSegment(segments, segmentId);
 		var newPositionOfSegment = positionOfSegment + position;
-		if (newPositionOfSegment < 0 || newPositionOfSegment > (segments.size() - 1)) {
+		if (positionOfSegment < 0 || newPositionOfSegment < 0 || newPositionOfSegment > (segments.size() - 1)) {
 			this.log.debug("you're trying to move out of bounds");
 			return;
 		}
-		segments.remove(segment);
-		segments.add(newPositionOfSegment, segment);
-		this.reorderSegments(segments);
-		var epId = this.getPodcastEpisodeSegmentById(segmentId).episodeId();
-		var ep = this.getPodcastEpisodeById(epId);
-		this.publisher.publishEvent(new PodcastEpisodeUpdatedEvent(ep));
-	}
-
-	private void reorderSegments(List<Segment> segments) {
-		var counter = 0;
-		for (var segment : segments) {
-			counter += 1;
-			this.updateEpisodeSegmentOrder(segment.id(), counter);
+		segments.add(newPositionOfSegment, segments.remove(positionOfSegment));
+		this.placeSegment(episodeId, segments, newPositionOfSegment);
+		this.publisher.publishEvent(new PodcastEpisodeUpdatedEvent(this.getPodcastEpisodeById(episodeId)));
+	}
+
+	@Override
+	public void reorderPodcastEpisodeSegments(Long episodeId, List<Long> segmentIds) {
+		Assert.notNull(segmentIds, "the segment ids must not be null");
+		var currentSegmentIds = this.getPodcastEpisodeSegmentsByEpisode(episodeId).stream().map(Segment::id).toList();
+		Assert.state(
+				segmentIds.size() == currentSegmentIds.size()
+						&& new HashSet<>(segmentIds).equals(new HashSet<>(currentSegmentIds)),
+				() -> "the new order must name each of the segments of episode #" + episodeId + " exactly once");
+		if (currentSegmentIds.equals(segmentIds))
+			return;
+		this.renumberSegments(episodeId, segmentIds);
+		this.publisher.publishEvent(new PodcastEpisodeUpdatedEvent(this.getPodcastEpisodeById(episodeId)));
+	}
+
+	private int indexOfSegment(List<Segment> segments, Long segmentId) {
+		for (var i = 0; i < segments.size(); i++)
+			if (segments.get(i).id().equals(segmentId))
+				return i;
+		return -1;
+	}
+
+	/*
+	 * gives the segment at the index a number halfway between those of its neighbours, if
+	 * there's room, so that only its own row changes. otherwise, all the segments are
+	 * numbered again.
+	 */
+	private void placeSegment(Long episodeId, List<Segment> segments, int index) {
+		long before = index == 0 ? 0 : segments.get(index - 1).order();
+		long after = index == segments.size() - 1 ? before + 2L * SEGMENT_ORDER_GAP : segments.get(index + 1).order();
+		if (after - before > 1 && after <= Integer.MAX_VALUE) {
+			this.db.sql("update podcast_episode_segment set sequence_number = ? where id = ?")
+				.params((int) (before + (after - before) / 2), segments.get(index).id())
+				.update();
+			this.graphs.invalidateForEpisode(episodeId);
+		} //
+		else {
+			this.renumberSegments(episodeId, segments.stream().map(Segment::id).toList());
 		}
 	}
 
+	/* numbers all the segments, in the given order, in a single statement */
+	private void renumberSegments(Long episodeId, List<Long> segmentIds) {
+		var ids = segmentIds.toArray(new Long[0]);
+		var orders = new Integer[ids.length];
+		for (var i = 0; i < orders.length; i++)
+			orders[i] = (i + 1) * SEGMENT_ORDER_GAP;
+		this.db.sql("""
+				update podcast_episode_segment pes
+				set sequence_number = o.sequence_number
+				from unnest(?::bigint[], ?::int[]) as o(id, sequence_number)
+				where pes.id = o.id and pes.podcast_episode = ?
+				""").params(ids, orders, episodeId).update();
+		this.graphs.invalidateForEpisode(episodeId);
+	}
+
 	@Override
 	public void movePodcastEpisodeSegmentDown(Long episode, Long segment) {
 		this.moveEpisodeSegment(episode, segment, 1);
@@ -348,57 +471,66 @@ class DefaultPodcastService implements PodcastService {
 		Assert.state(segment != null, "you must specify a valid " + Segment.class.getName());
 		var managedFilesToDelete = Set.of(segment.audio().id(), segment.producedAudio().id());
 		this.db.sql("delete from podcast_episode_segment where id =?").params(episodeSegmentId).update();
-		for (var managedFileId : managedFilesToDelete)
-			this.managedFileService.deleteManagedFile(managedFileId);
-		this.reorderSegments(this.getPodcastEpisodeSegmentsByEpisode(segment.episodeId()));
+		this.graphs.invalidateForEpisode(segment.episodeId());
+		this.managedFileService.deleteManagedFiles(managedFilesToDelete);
 		this.refreshPodcastEpisodeCompleteness(segment.episodeId());
+		this.publisher.publishEvent(new PodcastEpisodeUpdatedEvent(this.getPodcastEpisodeById(segment.episodeId())));
 	}
 
 	@Override
 	public void deletePodcast(Long podcastId) {
 		var podcast = this.getPodcastById(podcastId);
-		for (var episode : this.getPodcastEpisodesByPodcast(podcastId)) {
-			this.deletePodcastEpisode(episode.id());
-		}
+		var episodes = this.getPodcastEpisodesByPodcast(podcastId);
+		this.deletePodcastEpisodes(episodes.stream().map(Episode::id).toList());
 		this.db.sql(" delete from podcast where id = ?").param(podcastId).update();
+		this.graphs.invalidate(podcast.mogulId());
+		for (var episode : episodes)
+			this.publisher.publishEvent(new PodcastEpisodeDeletedEvent(episode));
 		this.publisher.publishEvent(new PodcastDeletedEvent(podcast));
 	}
 
 	@Override
 	public void deletePodcastEpisode(Long episodeId) {
-		var segmentsForEpisode = this.getPodcastEpisodeSegmentsByEpisode(episodeId);
-		if (segmentsForEpisode == null)
-			segmentsForEpisode = new ArrayList<>();
-
 		var episode = this.getPodcastEpisodeById(episodeId);
-
-		var ids = new HashSet<Long>();
-
-		for (var managedFile : new ManagedFile[] { episode.graphic(), episode.producedAudio(),
-				episode.producedGraphic() })
-			if (managedFile != null)
-				ids.add(managedFile.id());
-
-		for (var segment : segmentsForEpisode)
-			for (var managedFile : new ManagedFile[] { segment.audio(), segment.producedAudio() })
-				if (managedFile != null)
-					ids.add(managedFile.id());
-
-		this.db.sql("delete from podcast_episode_segment where podcast_episode  = ?").param(episode.id()).update();
-		this.db.sql("delete from podcast_episode where id = ?").param(episode.id()).update();
-
-		for (var managedFileId : ids)
-			this.managedFileService.deleteManagedFile(managedFileId);
-
+		Assert.state(episode != null, () -> "there is no podcast episode with id #" + episodeId);
+		this.deletePodcastEpisodes(List.of(episodeId));
+		this.graphs.invalidateForPodcast(episode.podcastId());
 		this.publisher.publishEvent(new PodcastEpisodeDeletedEvent(episode));
 	}
 
+	/*
+	 * deletes the episodes, their segments, and all of their managed files with a handful
+	 * of statements, however many episodes there are.
+	 */
+	private void deletePodcastEpisodes(Collection<Long> episodeIds) {
+		if (episodeIds.isEmpty())
+			return;
+		var managedFileIds = JdbcUtils.queryByIds(this.db, """
+				with doomed as (select unnest(?::bigint[]) as id)
+				select unnest(array[pe.graphic, pe.produced_graphic, pe.produced_audio]) as managed_file
+				from podcast_episode pe join doomed d on d.id = pe.id
+				union
+				select unnest(array[pes.segment_audio_managed_file, pes.produced_segment_audio_managed_file])
+				from podcast_episode_segment pes join doomed d on d.id = pes.podcast_episode
+				""", episodeIds, (rs, rowNum) -> rs.getObject("managed_file", Long.class));
+		JdbcUtils.updateByIds(this.db, "delete from podcast_episode_segment where podcast_episode = any(?::bigint[])",
+				episodeIds);
+		JdbcUtils.updateByIds(this.db, "delete from podcast_episode where id = any(?::bigint[])", episodeIds);
+		// the rows that referred to the managed files are gone, so now the files can go, too
+		this.managedFileService.deleteManagedFiles(managedFileIds);
+	}
+
 	@Override
 	public Podcast getPodcastById(Long podcastId) {
-		return this.db.sql("select * from podcast p where p.id=?")//
-			.param(podcastId)//
-			.query(podcastRowMapper)//
-			.single();
+		var podcast = this.findPodcastById(podcastId);
+		Assert.state(podcast != null, () -> "there is no podcast with id #" + podcastId);
+		return podcast;
+	}
+
+	@Override
+	public Podcast findPodcastById(Long podcastId) {
+		var graph = this.graphs.forPodcast(podcastId);
+		return graph == null ? null : graph.podcast(podcastId);
 	}
 
 	@Override
@@ -416,15 +548,19 @@ class DefaultPodcastService implements PodcastService {
 		return this.compositionService.compose(episode, field);
 	}
 
+	/*
+	 * the compositions are created along with the draft, and a migration created them for
+	 * the episodes that predate that, so this only ever reads.
+	 */
+	@Override
+	public Map<Long, Composition> getPodcastEpisodeCompositions(Collection<Long> episodeIds, String field) {
+		return this.compositionService.getCompositionsByKeys(Episode.class, episodeIds, field);
+	}
+
 	@Override
 	public Segment createPodcastEpisodeSegment(Long mogulId, Long episodeId, String name, long crossfade) {
-		var maxOrder = (this.db
-			.sql("select max( sequence_number) from podcast_episode_segment where podcast_episode  = ? ")
-			.params(episodeId)
-			.query(Number.class)
-			.optional()
-			.orElse(0)
-			.longValue()) + 1;
+		var existingSegments = this.getPodcastEpisodeSegmentsByEpisode(episodeId);
+		var order = (existingSegments.isEmpty() ? 0 : existingSegments.getLast().order()) + SEGMENT_ORDER_GAP;
 		var uid = UUID.randomUUID().toString();
 		// var bucket = PodcastService.PODCAST_EPISODES_BUCKET;
 		var sql = """
@@ -453,12 +589,12 @@ class DefaultPodcastService implements PodcastService {
 		this.db //
 			.sql(sql)
 			.params(episodeId, segmentAudioManagedFile.id(), producedSegmentAudioManagedFile.id(), crossfade, name,
-					maxOrder)
+					order)
 			.update(gkh);
 		var id = JdbcUtils.getIdFromKeyHolder(gkh);
-		var episodeSegmentsByEpisode = this.getPodcastEpisodeSegmentsByEpisode(episodeId);
-		this.reorderSegments(episodeSegmentsByEpisode);
+		this.graphs.invalidateForEpisode(episodeId);
 		this.refreshPodcastEpisodeCompleteness(episodeId);
+		this.publisher.publishEvent(new PodcastEpisodeUpdatedEvent(this.getPodcastEpisodeById(episodeId)));
 		return this.getPodcastEpisodeSegmentById(id.longValue());
 	}
 
@@ -472,6 +608,7 @@ class DefaultPodcastService implements PodcastService {
 				.update();
 			Assert.state(updated != 0,
 					"there should be at least " + "one transcript set for segment # " + segment.id());
+			this.graphs.invalidateForEpisode(segment.episodeId());
 		} //
 		else {
 			this.log.debug("could not find the podcast episode segment with id: {} ", episodeSegmentId);
@@ -484,20 +621,15 @@ class DefaultPodcastService implements PodcastService {
 		var segment = this.getPodcastEpisodeSegmentById(episodeSegmentId);
 		var mogul = this.mogulService.getCurrentMogul().id();
 		if (null != segment && segment.transcribable()) {
-			this.transcribe(mogul, segment.id(), Segment.class,
-					this.managedFileService.read(segment.producedAudio().id()));
+			this.transcribe(mogul, segment.id(), Segment.class, segment.producedAudio().id());
 
 		}
 	}
 
 	@Override
 	public Segment getPodcastEpisodeSegmentById(Long episodeSegmentId) {
-		return this.db//
-			.sql("select * from podcast_episode_segment where id =?")//
-			.params(episodeSegmentId)
-			.query(this.episodeSegmentRowMapper)//
-			.optional()//
-			.orElse(null);
+		var graph = this.graphs.forSegment(episodeSegmentId);
+		return graph == null ? null : graph.segment(episodeSegmentId, this.managedFiles);
 	}
 
 	@Override
@@ -522,11 +654,8 @@ class DefaultPodcastService implements PodcastService {
 	}
 
 	private void ensurePodcastBelongsToMogul(Long currentMogulId, Long podcastId) {
-		var match = this.db.sql("select p.id as id  from podcast p where p.id =  ? and p.mogul = ?  ")
-			.params(podcastId, currentMogulId)
-			.query((rs, rowNum) -> rs.getInt("id"))
-			.list();
-		Assert.state(!match.isEmpty(), "there is indeed a podcast with this id and this mogul");
+		var match = this.graphs.forMogul(currentMogulId).podcast(podcastId);
+		Assert.state(match != null, "there is indeed a podcast with this id and this mogul");
 	}
 
 	@Override
@@ -537,6 +666,7 @@ class DefaultPodcastService implements PodcastService {
 		this.db.sql("update podcast_episode set title = ?, description =? where id = ?")
 			.params(title, description, episodeId)
 			.update();
+		this.graphs.invalidateForEpisode(episodeId);
 		this.refreshPodcastEpisodeCompleteness(episodeId);
 		this.publisher.publishEvent(new PodcastEpisodeUpdatedEvent(this.getPodcastEpisodeById(episodeId)));
 		return this.getPodcastEpisodeById(episodeId);
@@ -550,6 +680,7 @@ class DefaultPodcastService implements PodcastService {
 				.sql("update podcast_episode set produced_audio_updated=? where id=? ") //
 				.params(new Date(), episodeId) //
 				.update();
+			this.graphs.invalidateForEpisode(episodeId);
 			this.log.debug("updated episode {} to have non-null produced_audio_updated", episodeId);
 			this.publisher.publishEvent(new PodcastEpisodeUpdatedEvent(getPodcastEpisodeById(episodeId)));
 			this.getPodcastEpisodeById(episodeId);
@@ -561,10 +692,10 @@ class DefaultPodcastService implements PodcastService {
 
 	@Override
 	public Collection<Episode> getAllPodcastEpisodesByIds(Collection<Long> episodeIds) {
-		var ids = episodeIds.stream().map(e -> Long.toString(e)).collect(Collectors.joining(","));
-		return this.db.sql("select * from podcast_episode pe where pe.id in ( " + ids + " )")
-			.query(new EpisodeRowMapper(managedFileService::getManagedFile))
-			.list();
+		var episodes = new ArrayList<Episode>();
+		this.graphs.forEpisodes(episodeIds)
+			.forEach((episodeId, graph) -> episodes.add(graph.episode(episodeId, this.managedFiles)));
+		return episodes;
 	}
 
 	@EventListener
@@ -583,16 +714,20 @@ class DefaultPodcastService implements PodcastService {
 
 	@Override
 	public Collection<Podcast> getAllPodcastsByMogul(Long mogulId) {
-		return this.db //
-			.sql("select * from podcast p where p.mogul = ?")//
-			.param(mogulId)//
-			.query(this.podcastRowMapper)//
-			.list();
+		return this.graphs.forMogul(mogulId).podcasts();
 	}
 
-	private void transcribe(Long mogulId, Serializable key, Class<?> subject, Resource resource) {
+	private void transcribe(Long mogulId, Serializable key, Class<?> subject, Long managedFileId) {
 		this.log.debug("going to transcribe for mogul {} the key {} and subject {} ", mogulId, key, subject.getName());
-		var reply = this.transcriber.transcribe(resource);
+		var audio = FileUtils.tempFileWithExtension("mp3");
+		String reply;
+		try {
+			this.managedFileService.download(managedFileId, audio);
+			reply = this.transcriber.transcribe(new FileSystemResource(audio));
+		} //
+		finally {
+			FileUtils.delete(audio);
+		}
 		var tpe = new TranscriptProcessedEvent(mogulId, key, reply, subject);
 		this.publisher.publishEvent(tpe);
 		this.log.debug("transcribed for mogul {} the key {} and subject {} ", mogulId, key, subject.getName());
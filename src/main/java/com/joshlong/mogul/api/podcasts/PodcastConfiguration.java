@@ -1,10 +1,19 @@
 package com.joshlong.mogul.api.podcasts;
 
+import com.joshlong.mogul.api.ApiProperties;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.aot.hint.annotation.RegisterReflectionForBinding;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.simple.JdbcClient;
 
 @Configuration
 @RegisterReflectionForBinding({ Podcast.class, Episode.class, Segment.class })
 class PodcastConfiguration {
 
+	@Bean
+	PodcastGraphs podcastGraphs(JdbcClient db, ApiProperties properties, MeterRegistry registry) {
+		return new PodcastGraphs(db, properties.podcasts().cache(), registry);
+	}
+
 }
@@ -1,26 +1,37 @@
 package com.joshlong.mogul.api.podcasts;
 
 import com.joshlong.mogul.api.compositions.Composition;
+import com.joshlong.mogul.api.managedfiles.ManagedFile;
 import com.joshlong.mogul.api.mogul.MogulService;
 import com.joshlong.mogul.api.notifications.NotificationEvent;
 import com.joshlong.mogul.api.notifications.NotificationEvents;
 import com.joshlong.mogul.api.utils.JsonUtils;
+import org.dataloader.DataLoader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.aot.hint.annotation.RegisterReflectionForBinding;
 import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.KeysetScrollPosition;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Window;
 import org.springframework.graphql.data.method.annotation.*;
+import org.springframework.graphql.data.query.ScrollSubrange;
 import org.springframework.modulith.events.ApplicationModuleListener;
 import org.springframework.stereotype.Controller;
 import org.springframework.util.Assert;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 @Controller
 @RegisterReflectionForBinding(Map.class)
 class PodcastController {
 
+	private static final int DEFAULT_EPISODES_PAGE_SIZE = 20;
+
+	private static final int MAXIMUM_EPISODES_PAGE_SIZE = 100;
+
 	private final Logger log = LoggerFactory.getLogger(getClass());
 
 	private final ApplicationEventPublisher publisher;
@@ -52,6 +63,13 @@ class PodcastController {
 		return true;
 	}
 
+	@MutationMapping
+	boolean reorderPodcastEpisodeSegments(@Argument Long podcastEpisodeId,
+			@Argument List<Long> podcastEpisodeSegmentIds) {
+		this.podcastService.reorderPodcastEpisodeSegments(podcastEpisodeId, podcastEpisodeSegmentIds);
+		return true;
+	}
+
 	@MutationMapping
 	boolean updatePodcastEpisode(@Argument Long podcastEpisodeId, @Argument String title,
 			@Argument String description) {
@@ -111,6 +129,29 @@ class PodcastController {
 		return this.podcastService.getPodcastEpisodesByPodcast(podcast.id());
 	}
 
+	@QueryMapping
+	Window<Episode> podcastEpisodesConnection(@Argument Long podcastId, ScrollSubrange subrange,
+			@Argument Boolean complete, @Argument Boolean published) {
+		var podcast = this.podcastService.findPodcastById(podcastId);
+		// there's nothing to return for a podcast that doesn't exist
+		if (podcast == null)
+			return null;
+		return this.episodesConnection(podcast, subrange, complete, published);
+	}
+
+	@SchemaMapping
+	Window<Episode> episodesConnection(Podcast podcast, ScrollSubrange subrange, @Argument Boolean complete,
+			@Argument Boolean published) {
+		this.mogulService.assertAuthorizedMogul(podcast.mogulId());
+		var position = subrange.position()
+			.filter(KeysetScrollPosition.class::isInstance)
+			.map(KeysetScrollPosition.class::cast)
+			.orElseGet(ScrollPosition::keyset);
+		var count = Math.min(subrange.count().orElse(DEFAULT_EPISODES_PAGE_SIZE), MAXIMUM_EPISODES_PAGE_SIZE);
+		return this.podcastService.getPodcastEpisodesByPodcast(podcast.id(),
+				subrange.forward() ? position.forward() : position.backward(), count, complete, published);
+	}
+
 	@MutationMapping
 	boolean deletePodcastEpisode(@Argument Long podcastEpisodeId) {
 		this.podcastService.deletePodcastEpisode(podcastEpisodeId);
@@ -159,13 +200,48 @@ class PodcastController {
 	}
 
 	@SchemaMapping
-	Composition titleComposition(Episode episode) {
-		return this.podcastService.getPodcastEpisodeTitleComposition(episode.id());
+	CompletableFuture<ManagedFile> graphic(Episode episode, DataLoader<Long, ManagedFile> managedFiles) {
+		return load(managedFiles, episode.graphic());
+	}
+
+	@SchemaMapping
+	CompletableFuture<ManagedFile> producedAudio(Episode episode, DataLoader<Long, ManagedFile> managedFiles) {
+		return load(managedFiles, episode.producedAudio());
+	}
+
+	@SchemaMapping
+	CompletableFuture<ManagedFile> audio(Segment segment, DataLoader<Long, ManagedFile> managedFiles) {
+		return load(managedFiles, segment.audio());
 	}
 
 	@SchemaMapping
-	Composition descriptionComposition(Episode episode) {
-		return this.podcastService.getPodcastEpisodeDescriptionComposition(episode.id());
+	CompletableFuture<ManagedFile> producedAudio(Segment segment, DataLoader<Long, ManagedFile> managedFiles) {
+		return load(managedFiles, segment.producedAudio());
+	}
+
+	// the records only carry placeholders: this gathers their ids up into one batch
+	private static CompletableFuture<ManagedFile> load(DataLoader<Long, ManagedFile> managedFiles,
+			ManagedFile managedFile) {
+		return managedFile == null ? CompletableFuture.completedFuture(null) : managedFiles.load(managedFile.id());
+	}
+
+	@BatchMapping
+	Map<Episode, Composition> titleComposition(List<Episode> episodes) {
+		return this.compositions(episodes, "title");
+	}
+
+	@BatchMapping
+	Map<Episode, Composition> descriptionComposition(List<Episode> episodes) {
+		return this.compositions(episodes, "description");
+	}
+
+	private Map<Episode, Composition> compositions(List<Episode> episodes, String field) {
+		var compositions = this.podcastService
+			.getPodcastEpisodeCompositions(episodes.stream().map(Episode::id).collect(Collectors.toSet()), field);
+		var map = new HashMap<Episode, Composition>();
+		for (var episode : episodes)
+			map.put(episode, compositions.get(episode.id()));
+		return map;
 	}
 
 	@MutationMapping
@@ -138,7 +138,7 @@ class PodcastEpisodeFeedController {
 		@Override
 		public Entry map(Episode episode) {
 			var graphicManagedFile = episode.producedGraphic();
-			var urlForManagedFile = managedFileService.getPublicUrlForManagedFile(graphicManagedFile.id());
+			var urlForManagedFile = managedFileService.getPublicUrlForManagedFile(graphicManagedFile);
 			var img = new Entry.Image(urlForManagedFile, graphicManagedFile.size(), graphicManagedFile.contentType());
 			return new Entry(longToUuid(episode.id()).toString(), episode.created().toInstant(), episode.title(),
 					this.urls.get(episode.id()), episode.description(), Map.of("id", Long.toString(episode.id())), img);
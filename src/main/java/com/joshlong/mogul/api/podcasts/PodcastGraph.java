@@ -0,0 +1,166 @@
+package com.joshlong.mogul.api.podcasts;
+
+import com.joshlong.mogul.api.managedfiles.ManagedFile;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * an immutable snapshot of everything a single mogul has: their podcasts, the episodes
+ * of those podcasts, and the segments of those episodes. it's never changed, only
+ * replaced.
+ * <p>
+ * the snapshot refers to {@link ManagedFile managed files} by id and resolves them
+ * whenever an episode or segment is handed out, so that it never holds on to a managed
+ * file that has since changed.
+ */
+final class PodcastGraph {
+
+	private final Long mogulId;
+
+	private final long version;
+
+	private final Map<Long, Podcast> podcasts;
+
+	private final Map<Long, EpisodeNode> episodes;
+
+	private final Map<Long, SegmentNode> segments;
+
+	private final Map<Long, List<EpisodeNode>> episodesByPodcast;
+
+	private final Map<Long, List<SegmentNode>> segmentsByEpisode;
+
+	PodcastGraph(Long mogulId, long version, Collection<Podcast> podcasts, Collection<EpisodeNode> episodes,
+			Collection<SegmentNode> segments) {
+		this.mogulId = mogulId;
+		this.version = version;
+		this.podcasts = index(podcasts, Podcast::id);
+		this.episodes = index(episodes, EpisodeNode::id);
+		this.segments = index(segments, SegmentNode::id);
+		this.episodesByPodcast = group(episodes, EpisodeNode::podcastId, Comparator.comparing(EpisodeNode::id));
+		this.segmentsByEpisode = group(segments, SegmentNode::episodeId,
+				Comparator.comparingInt(SegmentNode::order).thenComparing(SegmentNode::id));
+	}
+
+	Long mogulId() {
+		return this.mogulId;
+	}
+
+	/**
+	 * the version of the mogul's podcasts that the snapshot was taken from.
+	 */
+	long version() {
+		return this.version;
+	}
+
+	boolean hasPodcast(Long podcastId) {
+		return this.podcasts.containsKey(podcastId);
+	}
+
+	boolean hasEpisode(Long episodeId) {
+		return this.episodes.containsKey(episodeId);
+	}
+
+	boolean hasSegment(Long segmentId) {
+		return this.segments.containsKey(segmentId);
+	}
+
+	List<Podcast> podcasts() {
+		return this.podcasts.values()
+			.stream()
+			.sorted(Comparator.comparing(Podcast::id))
+			.map(PodcastGraph::copy)
+			.toList();
+	}
+
+	Podcast podcast(Long podcastId) {
+		var podcast = this.podcasts.get(podcastId);
+		return podcast == null ? null : copy(podcast);
+	}
+
+	Episode episode(Long episodeId, Function<Long, ManagedFile> managedFiles) {
+		var node = this.episodes.get(episodeId);
+		return node == null ? null : node.episode(managedFiles);
+	}
+
+	List<Episode> episodesByPodcast(Long podcastId, Function<Long, ManagedFile> managedFiles) {
+		return this.episodesByPodcast.getOrDefault(podcastId, List.of())
+			.stream()
+			.map(node -> node.episode(managedFiles))
+			.toList();
+	}
+
+	Segment segment(Long segmentId, Function<Long, ManagedFile> managedFiles) {
+		var node = this.segments.get(segmentId);
+		return node == null ? null : node.segment(managedFiles);
+	}
+
+	/**
+	 * the episode's segments, in order.
+	 */
+	List<Segment> segmentsByEpisode(Long episodeId, Function<Long, ManagedFile> managedFiles) {
+		return this.segmentsByEpisode.getOrDefault(episodeId, List.of())
+			.stream()
+			.map(node -> node.segment(managedFiles))
+			.toList();
+	}
+
+	/**
+	 * roughly how much room the snapshot takes, counted in podcasts, episodes, and
+	 * segments.
+	 */
+	int weight() {
+		return 1 + this.podcasts.size() + this.episodes.size() + this.segments.size();
+	}
+
+	private static <T> Map<Long, T> index(Collection<T> values, Function<T, Long> key) {
+		var map = new HashMap<Long, T>();
+		for (var value : values)
+			map.put(key.apply(value), value);
+		return Collections.unmodifiableMap(map);
+	}
+
+	private static <T> Map<Long, List<T>> group(Collection<T> values, Function<T, Long> key,
+			Comparator<T> comparator) {
+		var map = new HashMap<Long, List<T>>();
+		for (var value : values)
+			map.computeIfAbsent(key.apply(value), k -> new ArrayList<>()).add(value);
+		map.replaceAll((k, list) -> list.stream().sorted(comparator).toList());
+		return Collections.unmodifiableMap(map);
+	}
+
+	record EpisodeNode(Long id, Long podcastId, String title, String description, Date created, Long graphic,
+			Long producedGraphic, Long producedAudio, boolean complete, Date producedAudioUpdated,
+			Date producedAudioAssetsUpdated) {
+
+		Episode episode(Function<Long, ManagedFile> managedFiles) {
+			return new Episode(this.id, this.podcastId, this.title, this.description, copy(this.created),
+					managedFiles.apply(this.graphic), managedFiles.apply(this.producedGraphic),
+					managedFiles.apply(this.producedAudio), this.complete, copy(this.producedAudioUpdated),
+					copy(this.producedAudioAssetsUpdated));
+		}
+
+	}
+
+	record SegmentNode(Long episodeId, Long id, Long audio, Long producedAudio, long crossFadeDuration, String name,
+			int order, boolean transcribable, String transcript) {
+
+		Segment segment(Function<Long, ManagedFile> managedFiles) {
+			return new Segment(this.episodeId, this.id, managedFiles.apply(this.audio),
+					managedFiles.apply(this.producedAudio), this.crossFadeDuration, this.name, this.order,
+					this.transcribable, this.transcript);
+		}
+
+	}
+
+	private static Podcast copy(Podcast podcast) {
+		return new Podcast(podcast.mogulId(), podcast.id(), podcast.title(), copy(podcast.created()),
+				new ArrayList<>());
+	}
+
+	// dates can be changed, so nobody gets the snapshot's own
+	private static Date copy(Date date) {
+		return date == null ? null : new Date(date.getTime());
+	}
+
+}
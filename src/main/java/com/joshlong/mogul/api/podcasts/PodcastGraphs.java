@@ -0,0 +1,310 @@
+package com.joshlong.mogul.api.podcasts;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.joshlong.mogul.api.ApiProperties;
+import com.joshlong.mogul.api.utils.JdbcUtils;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.Assert;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.function.Predicate;
+
+/**
+ * keeps a {@link PodcastGraph snapshot} of each mogul's podcasts, episodes, and segments
+ * in memory, so that the editor's constant polling doesn't go to the database.
+ * <p>
+ * anything that writes to a mogul's podcasts must {@link #invalidate(Long) invalidate}
+ * their snapshot. the snapshot is forgotten immediately, and again once the transaction
+ * finishes, in case somebody loaded the old state again in the meantime. until then, the
+ * transaction that did the writing gets snapshots of its own, which reflect its changes
+ * but which nobody else sees.
+ * <p>
+ * invalidating also bumps the mogul's version in the database, as the transaction
+ * commits, which is how the other nodes find out: a snapshot is revalidated against the
+ * version once it's a little old, and taken again if the version has moved on. a
+ * snapshot that's missing an id that the database says belongs to the mogul is
+ * revalidated straight away.
+ * <p>
+ * the snapshots are bounded by the total number of podcasts, episodes, and segments they
+ * hold. ids never move from one mogul to another, so the ids we've seen are remembered
+ * alongside the mogul they belong to.
+ */
+class PodcastGraphs {
+
+	private static final String PODCASTS_SQL = "select * from podcast where mogul = ?";
+
+	private static final String EPISODES_SQL = """
+			select pe.* from podcast_episode pe
+			join podcast p on p.id = pe.podcast
+			where p.mogul = ?
+			""";
+
+	private static final String SEGMENTS_SQL = """
+			select pes.* from podcast_episode_segment pes
+			join podcast_episode pe on pe.id = pes.podcast_episode
+			join podcast p on p.id = pe.podcast
+			where p.mogul = ?
+			""";
+
+	private final Logger log = LoggerFactory.getLogger(getClass());
+
+	private final PodcastRowMapper podcastRowMapper = new PodcastRowMapper();
+
+	private final RowMapper<PodcastGraph.EpisodeNode> episodeNodeRowMapper = PodcastGraphs::episodeNode;
+
+	private final RowMapper<PodcastGraph.SegmentNode> segmentNodeRowMapper = PodcastGraphs::segmentNode;
+
+	private final LoadingCache<Long, PodcastGraph> graphs;
+
+	private final Cache<Long, Long> podcastMoguls;
+
+	private final Cache<Long, Long> episodeMoguls;
+
+	private final Cache<Long, Long> segmentMoguls;
+
+	private final JdbcClient db;
+
+	PodcastGraphs(JdbcClient db, ApiProperties.Podcasts.Cache cache, MeterRegistry registry) {
+		Assert.state(cache.maximumNodes() > 0, "the podcast graphs must be allowed to hold at least one node");
+		this.db = db;
+		// our own writes evict straight away, but other nodes' writes are only noticed
+		// when a snapshot is revalidated: until then, whoever asks gets the old one
+		this.graphs = Caffeine.newBuilder()
+			.maximumWeight(cache.maximumNodes())
+			.weigher((Long mogulId, PodcastGraph graph) -> graph.weight())
+			.expireAfterWrite(cache.expireAfterWrite())
+			.refreshAfterWrite(cache.revalidateAfter())
+			.executor(Executors.newVirtualThreadPerTaskExecutor())
+			.recordStats()
+			.build(new CacheLoader<>() {
+
+				@Override
+				public PodcastGraph load(Long mogulId) {
+					return PodcastGraphs.this.load(mogulId);
+				}
+
+				@Override
+				public PodcastGraph reload(Long mogulId, PodcastGraph graph) {
+					return revalidate(graph);
+				}
+
+			});
+		CaffeineCacheMetrics.monitor(registry, this.graphs, "podcastGraphs");
+		this.podcastMoguls = this.ids(cache);
+		this.episodeMoguls = this.ids(cache);
+		this.segmentMoguls = this.ids(cache);
+	}
+
+	// deleted ids are forgotten eventually, too
+	private Cache<Long, Long> ids(ApiProperties.Podcasts.Cache cache) {
+		return Caffeine.newBuilder()
+			.maximumSize(cache.maximumNodes())
+			.expireAfterWrite(cache.expireAfterWrite())
+			.build();
+	}
+
+	PodcastGraph forMogul(Long mogulId) {
+		var pending = this.pending();
+		if (pending != null && pending.containsKey(mogulId))
+			return pending.computeIfAbsent(mogulId, this::load);
+		return this.graphs.get(mogulId);
+	}
+
+	/**
+	 * returns the snapshot of the mogul to whom the podcast belongs, or null if there's no
+	 * such podcast.
+	 */
+	PodcastGraph forPodcast(Long podcastId) {
+		var mogulId = this.podcastMoguls.get(podcastId,
+				id -> this.mogul("select mogul from podcast where id = ?", id));
+		return mogulId == null ? null : this.current(this.forMogul(mogulId), graph -> graph.hasPodcast(podcastId));
+	}
+
+	PodcastGraph forEpisode(Long episodeId) {
+		var mogulId = this.episodeMoguls.get(episodeId, id -> this.mogul("""
+				select p.mogul from podcast_episode pe join podcast p on p.id = pe.podcast where pe.id = ?
+				""", id));
+		return mogulId == null ? null : this.current(this.forMogul(mogulId), graph -> graph.hasEpisode(episodeId));
+	}
+
+	PodcastGraph forSegment(Long segmentId) {
+		var mogulId = this.segmentMoguls.get(segmentId, id -> this.mogul("""
+				select p.mogul from podcast_episode_segment pes
+				join podcast_episode pe on pe.id = pes.podcast_episode
+				join podcast p on p.id = pe.podcast
+				where pes.id = ?
+				""", id));
+		return mogulId == null ? null : this.current(this.forMogul(mogulId), graph -> graph.hasSegment(segmentId));
+	}
+
+	/*
+	 * the id belongs to the mogul, so a snapshot without it was probably taken before
+	 * another node added it. it may also be an id that's since been deleted, in which
+	 * case the snapshot is current, and stays.
+	 */
+	private PodcastGraph current(PodcastGraph graph, Predicate<PodcastGraph> complete) {
+		if (complete.test(graph))
+			return graph;
+		var revalidated = this.revalidate(graph);
+		if (revalidated != graph)
+			this.graphs.asMap().replace(graph.mogulId(), graph, revalidated);
+		return revalidated;
+	}
+
+	/**
+	 * returns the snapshot for each of the episodes that exist, looking up the moguls of
+	 * the episodes we haven't seen yet in one go.
+	 */
+	Map<Long, PodcastGraph> forEpisodes(Collection<Long> episodeIds) {
+		var moguls = this.episodeMoguls.getAll(episodeIds, missing -> {
+			var found = new HashMap<Long, Long>();
+			JdbcUtils.queryByIds(this.db, """
+					select pe.id, p.mogul from podcast_episode pe join podcast p on p.id = pe.podcast
+					where pe.id = any(?::bigint[])
+					""", new ArrayList<>(missing), rs -> {
+				found.put(rs.getLong("id"), rs.getLong("mogul"));
+			});
+			return found;
+		});
+		var graphsByMogul = new HashMap<Long, PodcastGraph>();
+		var revalidated = new HashSet<Long>();
+		moguls.forEach((episodeId, mogulId) -> {
+			var graph = graphsByMogul.computeIfAbsent(mogulId, this::forMogul);
+			if (!graph.hasEpisode(episodeId) && revalidated.add(mogulId))
+				graphsByMogul.put(mogulId, this.current(graph, g -> g.hasEpisode(episodeId)));
+		});
+		var graphsByEpisode = new HashMap<Long, PodcastGraph>();
+		moguls.forEach((episodeId, mogulId) -> graphsByEpisode.put(episodeId, graphsByMogul.get(mogulId)));
+		return graphsByEpisode;
+	}
+
+	void invalidate(Long mogulId) {
+		if (mogulId == null)
+			return;
+		this.graphs.invalidate(mogulId);
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			this.bumpVersions(List.of(mogulId));
+			return;
+		}
+		var pending = this.pending();
+		if (pending == null) {
+			pending = new HashMap<>();
+			TransactionSynchronizationManager.bindResource(this, pending);
+			var boundPending = pending;
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+
+				// as late as possible, so the versions are only locked while committing
+				@Override
+				public void beforeCommit(boolean readOnly) {
+					bumpVersions(boundPending.keySet());
+				}
+
+				@Override
+				public void afterCompletion(int status) {
+					TransactionSynchronizationManager.unbindResourceIfPossible(PodcastGraphs.this);
+					graphs.invalidateAll(boundPending.keySet());
+				}
+
+			});
+		}
+		// this transaction's own snapshot is loaded again the next time it's needed
+		pending.put(mogulId, null);
+	}
+
+	void invalidateForPodcast(Long podcastId) {
+		var graph = this.forPodcast(podcastId);
+		if (graph != null)
+			this.invalidate(graph.mogulId());
+	}
+
+	void invalidateForEpisode(Long episodeId) {
+		var graph = this.forEpisode(episodeId);
+		if (graph != null)
+			this.invalidate(graph.mogulId());
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<Long, PodcastGraph> pending() {
+		return (Map<Long, PodcastGraph>) TransactionSynchronizationManager.getResource(this);
+	}
+
+	private Long mogul(String sql, Long id) {
+		return this.db.sql(sql).param(id).query(Long.class).optional().orElse(null);
+	}
+
+	// in order, so that two transactions never wait on each other's versions
+	private void bumpVersions(Collection<Long> mogulIds) {
+		for (var mogulId : new TreeSet<>(mogulIds))
+			this.db.sql("""
+					insert into podcast_graph_version (mogul, version) values (?, 1)
+					on conflict (mogul) do update set version = podcast_graph_version.version + 1
+					""").param(mogulId).update();
+	}
+
+	private long version(Long mogulId) {
+		return this.db.sql("select version from podcast_graph_version where mogul = ?")
+			.param(mogulId)
+			.query(Long.class)
+			.optional()
+			.orElse(0L);
+	}
+
+	/* keeps the snapshot for as long as the mogul's version is the same */
+	private PodcastGraph revalidate(PodcastGraph graph) {
+		if (this.version(graph.mogulId()) == graph.version())
+			return graph;
+		this.log.debug("the podcasts of mogul #{} changed elsewhere", graph.mogulId());
+		return this.load(graph.mogulId());
+	}
+
+	private PodcastGraph load(Long mogulId) {
+		// the version goes first: anything written after it is noticed the next time
+		var version = this.version(mogulId);
+		var podcasts = this.db.sql(PODCASTS_SQL).param(mogulId).query(this.podcastRowMapper).list();
+		var episodes = this.db.sql(EPISODES_SQL).param(mogulId).query(this.episodeNodeRowMapper).list();
+		var segments = this.db.sql(SEGMENTS_SQL).param(mogulId).query(this.segmentNodeRowMapper).list();
+		for (var podcast : podcasts)
+			this.podcastMoguls.put(podcast.id(), mogulId);
+		for (var episode : episodes)
+			this.episodeMoguls.put(episode.id(), mogulId);
+		for (var segment : segments)
+			this.segmentMoguls.put(segment.id(), mogulId);
+		this.log.debug("loaded the podcast graph for mogul #{}: {} podcasts, {} episodes, and {} segments", mogulId,
+				podcasts.size(), episodes.size(), segments.size());
+		return new PodcastGraph(mogulId, version, podcasts, episodes, segments);
+	}
+
+	private static PodcastGraph.EpisodeNode episodeNode(ResultSet rs, int rowNum) throws SQLException {
+		return new PodcastGraph.EpisodeNode(rs.getLong("id"), rs.getLong("podcast"), rs.getString("title"),
+				rs.getString("description"), rs.getTimestamp("created"), rs.getLong("graphic"),
+				rs.getLong("produced_graphic"), rs.getLong("produced_audio"), rs.getBoolean("complete"),
+				rs.getTimestamp("produced_audio_updated"), rs.getTimestamp("produced_audio_assets_updated"));
+	}
+
+	private static PodcastGraph.SegmentNode segmentNode(ResultSet rs, int rowNum) throws SQLException {
+		return new PodcastGraph.SegmentNode(rs.getLong("podcast_episode"), rs.getLong("id"),
+				rs.getLong("segment_audio_managed_file"), rs.getLong("produced_segment_audio_managed_file"),
+				rs.getLong("cross_fade_duration"), rs.getString("name"), rs.getInt("sequence_number"),
+				rs.getBoolean("transcribable"), rs.getString("transcript"));
+	}
+
+}
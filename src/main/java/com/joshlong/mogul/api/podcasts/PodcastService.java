@@ -2,6 +2,8 @@ package com.joshlong.mogul.api.podcasts;
 
 import com.joshlong.mogul.api.compositions.Composition;
 import com.joshlong.mogul.api.managedfiles.ManagedFile;
+import org.springframework.data.domain.KeysetScrollPosition;
+import org.springframework.data.domain.Window;
 
 import java.util.Collection;
 import java.util.List;
@@ -15,6 +17,9 @@ public interface PodcastService {
 
 	Composition getPodcastEpisodeDescriptionComposition(Long episodeId);
 
+	// the compositions for the field of each of the episodes, looked up all at once
+	Map<Long, Composition> getPodcastEpisodeCompositions(Collection<Long> episodeIds, String field);
+
 	Segment createPodcastEpisodeSegment(Long mogulId, Long episodeId, String name, long crossfade);
 
 	// todo could we genericize this so that there's a chain of responsibility on the
@@ -32,6 +37,10 @@ public interface PodcastService {
 
 	void movePodcastEpisodeSegmentDown(Long episode, Long segment);
 
+	// puts all the episode's segments in the given order at once. every segment of the
+	// episode must be there, exactly once.
+	void reorderPodcastEpisodeSegments(Long episodeId, List<Long> segmentIds);
+
 	void deletePodcastEpisodeSegment(Long episodeSegmentId);
 
 	Segment getPodcastEpisodeSegmentById(Long episodeSegmentId);
@@ -44,6 +53,11 @@ public interface PodcastService {
 
 	Collection<Episode> getPodcastEpisodesByPodcast(Long podcastId);
 
+	// a page of the podcast's episodes, newest first, after (or, scrolling backward,
+	// before) the position. the filters are ignored when they're null.
+	Window<Episode> getPodcastEpisodesByPodcast(Long podcastId, KeysetScrollPosition position, int count,
+			Boolean complete, Boolean published);
+
 	Podcast createPodcast(Long mogulId, String title);
 
 	Episode createPodcastEpisode(Long podcastId, String title, String description, ManagedFile graphic,
@@ -51,6 +65,9 @@ public interface PodcastService {
 
 	Podcast getPodcastById(Long podcastId);
 
+	// like getPodcastById, but null, rather than an error, if there's no such podcast
+	Podcast findPodcastById(Long podcastId);
+
 	Episode getPodcastEpisodeById(Long episodeId);
 
 	Podcast updatePodcast(Long podcastId, String title);
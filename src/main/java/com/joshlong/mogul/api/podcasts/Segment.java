@@ -8,7 +8,8 @@ import com.joshlong.mogul.api.managedfiles.ManagedFile;
  * @param id the episode segment's ID
  * @param audio the raw source audio for a segment
  * @param producedAudio the produced, normalized, audio for a segment
- * @param crossFadeDuration the duration of the crossfade, if any. Default is 0.
+ * @param crossFadeDuration how long, in milliseconds, the segment fades in over the end
+ * of the one before it, if at all. Default is 0.
  * @param name the name of the segment
  * @param order the relative order of the segment
  * @param transcribable can/should this be sent for processing to arrive at a transcript?
@@ -0,0 +1,74 @@
+package com.joshlong.mogul.api.podcasts.production;
+
+import com.joshlong.mogul.api.utils.ProcessUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * produces the episode the way we always have: the decoded segments are concatenated
+ * into yet another .wav, and that's encoded as an mp3, with the concatenated .wav on disk
+ * in between. it ignores cross-fades.
+ * <p>
+ * segments in the same format are concatenated {@link WavConcatenator in-process}, so
+ * the encode is the only pass. otherwise, ffmpeg concatenates them in a pass of its own.
+ */
+class ConcatenatingPodcastProductionEngine implements PodcastProductionEngine {
+
+	private final Logger log = LoggerFactory.getLogger(getClass());
+
+	private final AudioEncoder audioEncoder;
+
+	ConcatenatingPodcastProductionEngine(AudioEncoder audioEncoder) {
+		this.audioEncoder = audioEncoder;
+	}
+
+	@Override
+	public Production produce(File workspace, List<SegmentAudio> segments) throws Exception {
+		var wavs = new ArrayList<WavConcatenator.Wav>();
+		for (var segment : segments) {
+			var file = segment.audio();
+			Assert.state(file.isFile(), () -> "the file '" + file.getAbsolutePath() + "' does not exist");
+			wavs.add(WavConcatenator.read(file));
+		}
+		var producedWav = workspaceTempFile(workspace, "wav");
+		var passes = 1;
+		if (WavConcatenator.compatible(wavs)) {
+			WavConcatenator.concatenate(wavs, producedWav);
+		} //
+		else {
+			this.log.debug("the segments don't all have the same format, so ffmpeg will concatenate them");
+			concatenateWithFfmpeg(segments, producedWav);
+			passes += 1;
+		}
+		Assert.state(producedWav.exists(),
+				"the produced audio at " + producedWav.getAbsolutePath() + " does not exist.");
+		var producedMp3 = this.audioEncoder.encode(producedWav);
+		return new Production(producedMp3, passes);
+	}
+
+	// ffmpeg's concat demuxer can only copy streams that already agree, so the filter graph
+	// brings them all to the same format first
+	static void concatenateWithFfmpeg(List<SegmentAudio> segments, File producedWav) throws Exception {
+		var command = new ArrayList<>(List.of("ffmpeg", "-nostdin", "-y"));
+		for (var segment : segments)
+			command.addAll(List.of("-i", segment.audio().getAbsolutePath()));
+		var withoutCrossFades = segments.stream().map(s -> new SegmentAudio(s.audio(), Duration.ZERO)).toList();
+		var graph = FilterGraphPodcastProductionEngine.filterGraph(withoutCrossFades);
+		command.addAll(List.of("-filter_complex", graph, "-map", "[" + FilterGraphPodcastProductionEngine.OUTPUT + "]",
+				"-vn", "-codec:a", "pcm_s16le", "-f", "wav", producedWav.getAbsolutePath()));
+		var exit = ProcessUtils.runCommand(command.toArray(new String[0]));
+		Assert.state(exit == 0, () -> "ffmpeg could not concatenate the segments into " + producedWav);
+	}
+
+	private static File workspaceTempFile(File workspace, String ext) {
+		return new File(workspace, UUID.randomUUID() + (ext.startsWith(".") ? ext : "." + ext));
+	}
+
+}
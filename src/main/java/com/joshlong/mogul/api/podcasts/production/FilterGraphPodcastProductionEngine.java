@@ -0,0 +1,77 @@
+package com.joshlong.mogul.api.podcasts.production;
+
+import com.joshlong.mogul.api.utils.ProcessUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.StringJoiner;
+import java.util.UUID;
+
+/**
+ * produces the episode in a single ffmpeg pass. one {@code filter_complex} graph decodes
+ * every segment, brings them all to the same format, joins each to the one before it
+ * (cross-fading, if the segment asks for it), and the result is encoded straight to mp3,
+ * without anything being written to disk along the way. the segments it reads are the
+ * decoded intermediates, which are kept on disk so that later productions can use them
+ * again.
+ */
+class FilterGraphPodcastProductionEngine implements PodcastProductionEngine {
+
+	private static final int SAMPLE_RATE = 44_100;
+
+	static final String OUTPUT = "out";
+
+	private final Logger log = LoggerFactory.getLogger(getClass());
+
+	@Override
+	public Production produce(File workspace, List<SegmentAudio> segments) throws Exception {
+		Assert.state(!segments.isEmpty(), "there must be at least one segment to produce");
+		var mp3 = new File(workspace, UUID.randomUUID() + ".mp3");
+		var command = new ArrayList<>(List.of("ffmpeg", "-nostdin", "-y"));
+		for (var segment : segments) {
+			var audio = segment.audio();
+			Assert.state(audio.isFile(), () -> "the file '" + audio.getAbsolutePath() + "' does not exist");
+			command.addAll(List.of("-i", audio.getAbsolutePath()));
+		}
+		var graph = filterGraph(segments);
+		this.log.debug("producing {} segments with the filter graph {}", segments.size(), graph);
+		command.addAll(List.of("-filter_complex", graph, "-map", "[" + OUTPUT + "]", "-vn", "-codec:a", "libmp3lame",
+				mp3.getAbsolutePath()));
+		var exit = ProcessUtils.runCommand(command.toArray(new String[0]));
+		Assert.state(exit == 0 && mp3.exists(), () -> "ffmpeg could not produce " + mp3.getAbsolutePath());
+		return new Production(mp3, 1);
+	}
+
+	static String filterGraph(List<SegmentAudio> segments) {
+		var graph = new StringJoiner(";");
+		// concat and acrossfade both insist that their inputs agree
+		for (var i = 0; i < segments.size(); i++)
+			graph.add(String.format(Locale.ROOT,
+					"[%d:a]aresample=%d,aformat=sample_fmts=fltp:channel_layouts=stereo[a%d]", i, SAMPLE_RATE, i));
+		if (segments.size() == 1)
+			graph.add("[a0]anull[" + OUTPUT + "]");
+		var previous = "a0";
+		for (var i = 1; i < segments.size(); i++) {
+			var joined = i == segments.size() - 1 ? OUTPUT : "j" + i;
+			var crossFade = segments.get(i).crossFade();
+			if (crossFade == null || crossFade.isZero() || crossFade.isNegative())
+				graph.add(String.format(Locale.ROOT, "[%s][a%d]concat=n=2:v=0:a=1[%s]", previous, i, joined));
+			else
+				graph.add(String.format(Locale.ROOT, "[%s][a%d]acrossfade=d=%s:c1=tri:c2=tri[%s]", previous, i,
+						seconds(crossFade), joined));
+			previous = joined;
+		}
+		return graph.toString();
+	}
+
+	private static String seconds(Duration duration) {
+		return String.format(Locale.ROOT, "%.3f", duration.toMillis() / 1000.0);
+	}
+
+}
@@ -9,10 +9,8 @@ import org.slf4j.LoggerFactory;
 import org.springframework.core.io.FileSystemResource;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
-import org.springframework.util.FileCopyUtils;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.util.HashSet;
 import java.util.function.Function;
 
@@ -45,8 +43,7 @@ public class MediaNormalizer {
 		try {
 			var localFile = input.uniqueLocalFile();
 			filesToDelete.add(localFile);
-			var resource = this.managedFileService.read(input.id());
-			FileCopyUtils.copy(resource.getInputStream(), new FileOutputStream(localFile));
+			this.managedFileService.download(input.id(), localFile);
 			var newFile = encodingFunction.apply(localFile);
 			filesToDelete.add(newFile);
 			this.managedFileService.write(output.id(), output.filename(), ext, new FileSystemResource(newFile));
@@ -5,22 +5,21 @@ import com.joshlong.mogul.api.managedfiles.ManagedFile;
 import com.joshlong.mogul.api.managedfiles.ManagedFileService;
 import com.joshlong.mogul.api.podcasts.Episode;
 import com.joshlong.mogul.api.podcasts.PodcastService;
+import com.joshlong.mogul.api.podcasts.Segment;
 import com.joshlong.mogul.api.utils.FileUtils;
-import com.joshlong.mogul.api.utils.ProcessUtils;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.util.Assert;
-import org.springframework.util.FileCopyUtils;
 
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Duration;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Locale;
 import java.util.UUID;
-import java.util.stream.Collectors;
 
 /**
  * given a {@link com.joshlong.mogul.api.podcasts.Podcast}, turn this into a complete
@@ -28,26 +27,58 @@ import java.util.stream.Collectors;
  */
 public class PodcastProducer {
 
+	private static final String SEGMENTS_DIRECTORY = "segments";
+
 	private final Logger log = LoggerFactory.getLogger(getClass());
 
-	private final AudioEncoder audioEncoder;
+	private final PodcastProductionEngine engine;
 
 	private final ManagedFileService managedFileService;
 
 	private final PodcastService podcastService;
 
+	private final SegmentIntermediates intermediates;
+
 	private final File root;
 
-	PodcastProducer(AudioEncoder audioEncoder, ManagedFileService managedFileService, PodcastService podcastService,
-			File root) {
-		this.audioEncoder = audioEncoder;
+	private final Timer productions;
+
+	private final Timer fetches;
+
+	private final DistributionSummary passes;
+
+	private final DistributionSummary workspaceSizes;
+
+	PodcastProducer(PodcastProductionEngine engine, ManagedFileService managedFileService,
+			PodcastService podcastService, SegmentIntermediates intermediates, File root, MeterRegistry registry) {
+		this.engine = engine;
 		this.managedFileService = managedFileService;
 		this.podcastService = podcastService;
+		this.intermediates = intermediates;
 		this.root = root;
-		Assert.notNull(this.audioEncoder, "the AudioEncoder reference is required");
+		Assert.notNull(this.engine, "the PodcastProductionEngine reference is required");
 		Assert.notNull(this.managedFileService, "the ManagedFileService reference is required");
 		Assert.notNull(this.root, "the root folder reference is required");
 		Assert.notNull(this.podcastService, "the PodcastService reference is required");
+		Assert.notNull(this.intermediates, "the SegmentIntermediates reference is required");
+		var engineName = engine.getClass().getSimpleName();
+		this.productions = Timer.builder("podcast.production")
+			.description("how long it takes to produce an episode's audio")
+			.tag("engine", engineName)
+			.register(registry);
+		this.fetches = Timer.builder("podcast.production.intermediates")
+			.description("how long it takes to download and decode (or find) an episode's segments")
+			.tag("engine", engineName)
+			.register(registry);
+		this.passes = DistributionSummary.builder("podcast.production.passes")
+			.description("how many times ffmpeg went over the decoded segments to produce an episode")
+			.tag("engine", engineName)
+			.register(registry);
+		this.workspaceSizes = DistributionSummary.builder("podcast.production.workspace")
+			.description("how much temporary disk it took to produce an episode")
+			.baseUnit("bytes")
+			.tag("engine", engineName)
+			.register(registry);
 	}
 
 	public ManagedFile produce(Episode episode) {
@@ -59,23 +90,23 @@ public class PodcastProducer {
 					"the workspace directory [" + workspace.getAbsolutePath() + "] does not exist");
 			var episodeId = episode.id();
 			var segments = this.podcastService.getPodcastEpisodeSegmentsByEpisode(episodeId);
-			var segmentFiles = new ArrayList<File>();
-			for (var s : segments) {
-				var localFile = new File(workspace, Long.toString(s.producedAudio().id()));
-				this.log.debug("produced audio file name locally {}", localFile.getAbsolutePath());
-				try (var in = this.managedFileService.read(s.producedAudio().id()).getInputStream();
-						var out = new FileOutputStream(localFile)) {
-					FileCopyUtils.copy(in, out);
-					this.log.debug("downloading [{}] to [{}]", s.producedAudio().id(), localFile.getAbsolutePath());
-				} //
-				catch (IOException e) {
-					this.log.error("got an exception when downloading the file to ");
-				}
-				segmentFiles.add(localFile);
+			// only the segments that changed since the last production are decoded again
+			var producedSegmentAudio = segments.stream().map(Segment::producedAudio).toList();
+			var segmentsDirectory = FileUtils.ensureDirectoryExists(new File(workspace, SEGMENTS_DIRECTORY));
+			var intermediates = this.fetches
+				.recordCallable(() -> this.intermediates.getAll(producedSegmentAudio, segmentsDirectory));
+			var segmentAudio = new ArrayList<PodcastProductionEngine.SegmentAudio>();
+			for (var i = 0; i < segments.size(); i++) {
+				this.log.debug("the intermediate for [{}] is [{}]", producedSegmentAudio.get(i).id(),
+						intermediates.get(i).getAbsolutePath());
+				segmentAudio.add(new PodcastProductionEngine.SegmentAudio(intermediates.get(i),
+						Duration.ofMillis(segments.get(i).crossFadeDuration())));
 			}
-			var producedWav = this.produce(workspace, segmentFiles.toArray(new File[0]));
-			var producedMp3 = this.audioEncoder.encode(producedWav);
-			// todo should this be converted to an .mp3 now?
+			var production = this.productions.recordCallable(() -> this.engine.produce(workspace, segmentAudio));
+			this.passes.record(production.passes());
+			this.workspaceSizes.record(sizeOf(workspace));
+			this.log.debug("produced episode [{}] in {} passes", episodeId, production.passes());
+			var producedMp3 = production.audio();
 			var producedAudio = episode.producedAudio();
 			this.managedFileService.write(producedAudio.id(), producedMp3.getName(), CommonMediaTypes.MP3, producedMp3);
 			this.log.debug("writing [{}]", episode.id());
@@ -98,53 +129,15 @@ public class PodcastProducer {
 		}
 	}
 
-	private File ensureWav(File workspace, File input) {
-		try {
-			var inputAbsolutePath = input.getAbsolutePath();
-			Assert.state(input.exists() && input.isFile(),
-					"the input ['" + inputAbsolutePath + "'] must be a valid, existing file");
-			var ext = "wav";
-			if (inputAbsolutePath.toLowerCase().endsWith(ext))
-				return input;
-			var wav = workspaceTempFile(workspace, ext);
-			var wavAbsolutePath = wav.getAbsolutePath();
-			var exit = ProcessUtils.runCommand("ffmpeg", "-i", inputAbsolutePath, "-acodec", "pcm_s16le", "-vn", "-f",
-					"wav", wavAbsolutePath);
-			Assert.state(exit == 0, "the ffmpeg command ran successfully");
-			return wav;
-		} //
-		catch (Exception e) {
-			throw new RuntimeException(e);
-		}
-	}
-
-	private File workspaceTempFile(File workspace, String ext) {
-		return new File(workspace, UUID.randomUUID() + (ext.startsWith(".") ? ext : "." + ext));
-	}
-
-	private File produce(File workspace, File... audioFiles) throws Exception {
-		Assert.state((workspace.exists() && workspace.isDirectory()) || workspace.mkdirs(),
-				"the folder root [" + workspace.getAbsolutePath() + "] does not exist");
-		var fileNames = Arrays.stream(audioFiles)
-			.parallel()
-			.peek(file -> Assert.state(file.exists() && file.isFile(),
-					"the file '" + file.getAbsolutePath() + "' does not exist"))
-			.map(file -> (file.getAbsolutePath().toLowerCase(Locale.ROOT).endsWith("wav")) ? file
-					: ensureWav(workspace, file))
-			.map(File::getAbsolutePath)
-			.map(path -> "file '" + path + "'")
-			.collect(Collectors.joining(System.lineSeparator()));
-		var filesFile = workspaceTempFile(workspace, "txt");
-		try (var out = new FileWriter(filesFile)) {
-			FileCopyUtils.copy(fileNames, out);
+	// everything is still in the workspace at the end, so this is as big as it ever got.
+	// the segments are links to the intermediates in their own cache, and don't count
+	private static long sizeOf(File workspace) throws IOException {
+		var segments = workspace.toPath().resolve(SEGMENTS_DIRECTORY);
+		try (var files = Files.walk(workspace.toPath())) {
+			return files.filter(path -> Files.isRegularFile(path) && !path.startsWith(segments))
+				.mapToLong(path -> path.toFile().length())
+				.sum();
 		}
-		var producedWav = workspaceTempFile(workspace, "wav");
-		ProcessUtils.runCommand("ffmpeg", "-f", "concat", "-safe", "0", "-i", filesFile.getAbsolutePath(), "-c", "copy",
-				producedWav.getAbsolutePath());
-		Assert.state(producedWav.exists(),
-				"the produced audio at " + producedWav.getAbsolutePath() + " does not exist.");
-		return producedWav;
-
 	}
 
 }
@@ -1,7 +1,10 @@
 package com.joshlong.mogul.api.podcasts.production;
 
+import com.joshlong.mogul.api.ApiProperties;
 import com.joshlong.mogul.api.managedfiles.ManagedFileService;
 import com.joshlong.mogul.api.podcasts.PodcastService;
+import com.joshlong.mogul.api.utils.DiskCache;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -12,9 +15,29 @@ import java.io.File;
 class PodcastProducerConfiguration {
 
 	@Bean
-	PodcastProducer podcastProducer(AudioEncoder audioEncoder, ManagedFileService managedFileService,
-			PodcastService podcastService, @Value("${mogul.podcasts.pipeline.root}") File root) {
-		return new PodcastProducer(audioEncoder, managedFileService, podcastService, root);
+	PodcastProductionEngine podcastProductionEngine(AudioEncoder audioEncoder, ApiProperties properties) {
+		return switch (properties.podcasts().production().engine()) {
+			case SINGLE_PASS -> new FilterGraphPodcastProductionEngine();
+			case MULTI_PASS -> new ConcatenatingPodcastProductionEngine(audioEncoder);
+		};
+	}
+
+	@Bean
+	SegmentIntermediates segmentIntermediates(ManagedFileService managedFileService, ApiProperties properties,
+			MeterRegistry registry) {
+		var intermediates = properties.podcasts().production().intermediates();
+		return new SegmentIntermediates(new DiskCache<>("mogul.podcasts.production.intermediates",
+				intermediates.root(), intermediates.maximumSize(), registry), managedFileService,
+				intermediates.downloads(), intermediates.decoders());
+	}
+
+	@Bean
+	PodcastProducer podcastProducer(PodcastProductionEngine podcastProductionEngine,
+			ManagedFileService managedFileService, PodcastService podcastService,
+			SegmentIntermediates segmentIntermediates, @Value("${mogul.podcasts.pipeline.root}") File root,
+			MeterRegistry registry) {
+		return new PodcastProducer(podcastProductionEngine, managedFileService, podcastService, segmentIntermediates,
+				root, registry);
 	}
 
 }
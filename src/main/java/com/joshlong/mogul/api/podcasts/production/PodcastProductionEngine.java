@@ -0,0 +1,33 @@
+package com.joshlong.mogul.api.podcasts.production;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * turns the decoded audio of an episode's segments, in order, into the finished mp3 for
+ * the episode. the {@link SegmentIntermediates segments} are all 16-bit pcm .wav files at
+ * 44.1kHz in stereo, and they belong to a cache that the engine must leave alone.
+ */
+interface PodcastProductionEngine {
+
+	/**
+	 * @param workspace a directory that's the engine's to use as it sees fit, and that's
+	 * deleted afterward.
+	 */
+	Production produce(File workspace, List<SegmentAudio> segments) throws Exception;
+
+	/**
+	 * @param crossFade how long the segment fades in over the end of the one before it.
+	 */
+	record SegmentAudio(File audio, Duration crossFade) {
+	}
+
+	/**
+	 * @param audio the finished mp3.
+	 * @param passes how many times ffmpeg went over the audio to get there.
+	 */
+	record Production(File audio, int passes) {
+	}
+
+}
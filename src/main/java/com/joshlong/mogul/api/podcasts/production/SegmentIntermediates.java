@@ -0,0 +1,176 @@
+package com.joshlong.mogul.api.podcasts.production;
+
+import com.joshlong.mogul.api.managedfiles.ManagedFile;
+import com.joshlong.mogul.api.managedfiles.ManagedFileService;
+import com.joshlong.mogul.api.managedfiles.ManagedFileUpdatedEvent;
+import com.joshlong.mogul.api.managedfiles.ManagedFilesDeletedEvent;
+import com.joshlong.mogul.api.utils.DiskCache;
+import com.joshlong.mogul.api.utils.FileUtils;
+import com.joshlong.mogul.api.utils.ProcessUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.modulith.events.ApplicationModuleListener;
+import org.springframework.util.Assert;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * keeps the decoded, normalized audio of recently produced segments on the local disk, so
+ * that producing an episode again only decodes the segments whose audio has changed since
+ * the last time. everything else goes straight to the final concat and encode.
+ * <p>
+ * entries are keyed by the managed file and the version of its contents, so a segment
+ * whose audio is written again is decoded again. every intermediate is 16-bit pcm .wav at
+ * 44.1kHz in stereo, which is what the {@link PodcastProductionEngine engines} expect.
+ */
+class SegmentIntermediates implements AutoCloseable {
+
+	private static final int MAXIMUM_LINK_ATTEMPTS = 3;
+
+	private final Logger log = LoggerFactory.getLogger(getClass());
+
+	private final DiskCache<Key> cache;
+
+	private final ManagedFileService managedFileService;
+
+	private final Semaphore downloads;
+
+	// ffmpeg is a process of its own, so there's no sense in running more than the machine
+	// has room for, or in tying up the common pool while waiting for them
+	private final ExecutorService decoders;
+
+	SegmentIntermediates(DiskCache<Key> cache, ManagedFileService managedFileService, int downloads, int decoders) {
+		Assert.state(downloads > 0, "there must be room for at least one download at a time");
+		Assert.state(decoders > 0, "there must be room for at least one decoder at a time");
+		this.cache = cache;
+		this.managedFileService = managedFileService;
+		this.downloads = new Semaphore(downloads);
+		this.decoders = Executors.newFixedThreadPool(decoders,
+				Thread.ofPlatform().name("segment-decoder-", 0).daemon().factory());
+	}
+
+	/**
+	 * returns the intermediates for the managed files, in the same order, linked into the
+	 * directory. every segment is downloaded and decoded at the same time as the others,
+	 * and each is decoded as soon as it's downloaded, so this takes about as long as the
+	 * slowest segment. the first failure is thrown as soon as the other segments have
+	 * stopped waiting for theirs. the loads themselves carry on, since another production
+	 * may be waiting for the same intermediate, and they're cached for the next attempt.
+	 * <p>
+	 * the links are hard links to the cached files where the file system allows it, and
+	 * copies where it doesn't, so the cache can evict an intermediate while somebody is
+	 * still reading its link. don't modify them, but they belong to the caller.
+	 */
+	List<File> getAll(List<ManagedFile> managedFiles, File directory) throws Exception {
+		var failure = new AtomicReference<Exception>();
+		var intermediates = new CopyOnWriteArrayList<Future<File>>();
+		try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (var i = 0; i < managedFiles.size(); i++) {
+				var managedFile = managedFiles.get(i);
+				var link = new File(directory, i + "-" + managedFile.id() + ".wav");
+				intermediates.add(executor.submit(() -> {
+					if (failure.get() != null)
+						throw new CancellationException("another segment of the production failed");
+					try {
+						return this.link(managedFile, link);
+					} //
+					catch (Exception exception) {
+						// the others stop waiting, but whatever they're waiting for keeps loading
+						if (failure.compareAndSet(null, exception))
+							intermediates.forEach(intermediate -> intermediate.cancel(true));
+						throw exception;
+					}
+				}));
+			}
+		}
+		if (failure.get() != null)
+			throw failure.get();
+		return intermediates.stream().map(Future::resultNow).toList();
+	}
+
+	/*
+	 * the cached file may be evicted before we get to link it, in which case we load it
+	 * again
+	 */
+	private File link(ManagedFile managedFile, File link) throws IOException {
+		for (var attempt = 1;; attempt++) {
+			var cached = this.cache.get(keyFor(managedFile), this::decode);
+			try {
+				return FileUtils.link(cached, link);
+			} //
+			catch (NoSuchFileException e) {
+				if (attempt == MAXIMUM_LINK_ATTEMPTS)
+					throw e;
+				this.log.debug("the intermediate for managed file #{} was evicted before it could be linked",
+						managedFile.id());
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		this.decoders.shutdownNow();
+	}
+
+	@ApplicationModuleListener
+	void onManagedFileUpdated(ManagedFileUpdatedEvent event) {
+		// the old versions can never be asked for again, so there's no sense in keeping them
+		var current = keyFor(event.managedFile());
+		this.cache
+			.invalidateAll(key -> key.managedFileId().equals(current.managedFileId()) && !key.equals(current));
+	}
+
+	@ApplicationModuleListener
+	void onManagedFilesDeleted(ManagedFilesDeletedEvent event) {
+		var managedFileIds = new HashSet<>(event.managedFileIds());
+		this.cache.invalidateAll(key -> managedFileIds.contains(key.managedFileId()));
+	}
+
+	private void decode(Key key, File intermediate, File scratch) {
+		var download = new File(scratch, "download");
+		try {
+			this.downloads.acquire();
+			try {
+				this.managedFileService.download(key.managedFileId(), download);
+			} //
+			finally {
+				this.downloads.release();
+			}
+			var exit = this.decoders.submit(() -> ProcessUtils.runCommand("ffmpeg", "-nostdin", "-y", "-i",
+					download.getAbsolutePath(), "-vn", "-ar", "44100", "-ac", "2", "-codec:a", "pcm_s16le", "-f", "wav",
+					intermediate.getAbsolutePath()))
+				.get();
+			Assert.state(exit == 0, () -> "ffmpeg could not decode the managed file #" + key.managedFileId());
+			this.log.debug("decoded the managed file #{} (version {})", key.managedFileId(), key.version());
+		} //
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} //
+		catch (ExecutionException e) {
+			throw e.getCause() instanceof RuntimeException re ? re : new RuntimeException(e.getCause());
+		}
+	}
+
+	private static Key keyFor(ManagedFile managedFile) {
+		var etag = managedFile.etag();
+		var version = etag != null ? etag : managedFile.updated().getTime() + ":" + managedFile.size();
+		return new Key(managedFile.id(), version);
+	}
+
+	record Key(Long managedFileId, String version) {
+	}
+
+}
@@ -0,0 +1,198 @@
+package com.joshlong.mogul.api.podcasts.production;
+
+import org.springframework.util.Assert;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * concatenates .wav files without ffmpeg, and without ever bringing the audio into the
+ * jvm: it reads the RIFF headers, writes a single header for the result, and has the
+ * kernel copy each file's samples straight after it. that only works if every file has
+ * exactly the same format, which is what {@link #compatible(List)} checks.
+ * <p>
+ * results that would be too big for a RIFF header (4GB, give or take) get an RF64 header
+ * instead, and RF64 files can be read, too.
+ */
+final class WavConcatenator {
+
+	private static final long MAXIMUM_RIFF_SIZE = 0xFFFFFFFFL;
+
+	private static final int DS64_SIZE = 28;
+
+	private static final int WAVE_FORMAT_PCM = 1;
+
+	private static final int WAVE_FORMAT_IEEE_FLOAT = 3;
+
+	private static final int WAVE_FORMAT_EXTENSIBLE = 0xFFFE;
+
+	private WavConcatenator() {
+	}
+
+	/**
+	 * @param fmt the contents of the file's {@code fmt } chunk.
+	 * @param dataOffset where the samples start.
+	 * @param dataSize how many bytes of samples there are, in whole frames.
+	 */
+	record Wav(File file, byte[] fmt, int blockAlign, long dataOffset, long dataSize) {
+	}
+
+	/**
+	 * returns the .wav, or null if the file isn't a .wav of uncompressed samples.
+	 */
+	static Wav read(File file) throws IOException {
+		try (var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			var length = channel.size();
+			var riff = read(channel, 0, 12);
+			if (riff == null)
+				return null;
+			var id = id(riff);
+			var rf64 = id.equals("RF64");
+			riff.getInt(); // the size, which we work out from the chunks
+			if (!(rf64 || id.equals("RIFF")) || !id(riff).equals("WAVE"))
+				return null;
+			var ds64DataSize = -1L;
+			byte[] fmt = null;
+			for (var position = 12L; position + 8 <= length;) {
+				var header = read(channel, position, 8);
+				var chunk = id(header);
+				var size = Integer.toUnsignedLong(header.getInt());
+				var body = position + 8;
+				if (chunk.equals("ds64")) {
+					var ds64 = read(channel, body, DS64_SIZE);
+					if (ds64 == null)
+						return null;
+					ds64DataSize = ds64.getLong(8);
+				} //
+				else if (chunk.equals("fmt ")) {
+					if (size < 16 || body + size > length)
+						return null;
+					fmt = new byte[(int) size];
+					read(channel, body, (int) size).get(fmt);
+				} //
+				else if (chunk.equals("data")) {
+					if (fmt == null)
+						return null;
+					var dataSize = rf64 && size == MAXIMUM_RIFF_SIZE ? ds64DataSize : size;
+					// whoever wrote the file may not have gone back to fill the size in
+					dataSize = Math.min(dataSize < 0 ? Long.MAX_VALUE : dataSize, length - body);
+					return wav(file, fmt, body, dataSize);
+				}
+				position = body + size + (size & 1);
+			}
+			return null;
+		}
+	}
+
+	private static Wav wav(File file, byte[] fmt, long dataOffset, long dataSize) {
+		var format = ByteBuffer.wrap(fmt).order(ByteOrder.LITTLE_ENDIAN);
+		var tag = Short.toUnsignedInt(format.getShort(0));
+		var blockAlign = Short.toUnsignedInt(format.getShort(12));
+		// the first two bytes of an extensible format's sub-format are the tag it stands for
+		if (tag == WAVE_FORMAT_EXTENSIBLE)
+			tag = fmt.length >= 26 ? Short.toUnsignedInt(format.getShort(24)) : -1;
+		if ((tag != WAVE_FORMAT_PCM && tag != WAVE_FORMAT_IEEE_FLOAT) || blockAlign == 0)
+			return null;
+		return new Wav(file, fmt, blockAlign, dataOffset, dataSize - dataSize % blockAlign);
+	}
+
+	/**
+	 * whether the samples of the .wav files can simply be put one after the other, which
+	 * they can if their {@code fmt } chunks are identical.
+	 */
+	static boolean compatible(List<Wav> wavs) {
+		for (var wav : wavs)
+			if (wav == null || !Arrays.equals(wav.fmt(), wavs.getFirst().fmt()))
+				return false;
+		return true;
+	}
+
+	static void concatenate(List<Wav> wavs, File output) throws IOException {
+		Assert.state(!wavs.isEmpty(), "there must be at least one .wav to concatenate");
+		Assert.state(compatible(wavs), "the .wav files must all have the same format");
+		var dataSize = wavs.stream().mapToLong(Wav::dataSize).sum();
+		try (var out = FileChannel.open(output.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			write(out, header(wavs.getFirst().fmt(), dataSize));
+			for (var wav : wavs) {
+				try (var in = FileChannel.open(wav.file().toPath(), StandardOpenOption.READ)) {
+					var position = wav.dataOffset();
+					var remaining = wav.dataSize();
+					while (remaining > 0) {
+						var transferred = in.transferTo(position, remaining, out);
+						if (transferred <= 0)
+							throw new EOFException("[" + wav.file().getAbsolutePath() + "] ended " + remaining
+									+ " bytes early");
+						position += transferred;
+						remaining -= transferred;
+					}
+				}
+			}
+			// chunks always take up an even number of bytes
+			if ((dataSize & 1) == 1)
+				write(out, ByteBuffer.allocate(1));
+		}
+	}
+
+	/**
+	 * the header for a .wav with the given format and this many bytes of samples, which
+	 * is RF64 rather than RIFF if the sizes don't fit.
+	 */
+	static ByteBuffer header(byte[] fmt, long dataSize) {
+		var fmtChunkSize = 8 + fmt.length + (fmt.length & 1);
+		var riffSize = 4 + fmtChunkSize + 8 + dataSize + (dataSize & 1);
+		var rf64 = riffSize > MAXIMUM_RIFF_SIZE;
+		if (rf64)
+			riffSize += 8 + DS64_SIZE;
+		var header = ByteBuffer.allocate(12 + (rf64 ? 8 + DS64_SIZE : 0) + fmtChunkSize + 8)
+			.order(ByteOrder.LITTLE_ENDIAN);
+		header.put(ascii(rf64 ? "RF64" : "RIFF")).putInt(rf64 ? -1 : (int) riffSize).put(ascii("WAVE"));
+		if (rf64) {
+			var blockAlign = Short.toUnsignedInt(ByteBuffer.wrap(fmt).order(ByteOrder.LITTLE_ENDIAN).getShort(12));
+			header.put(ascii("ds64"))
+				.putInt(DS64_SIZE)
+				.putLong(riffSize)
+				.putLong(dataSize)
+				.putLong(dataSize / blockAlign)
+				.putInt(0);
+		}
+		header.put(ascii("fmt ")).putInt(fmt.length).put(fmt);
+		if ((fmt.length & 1) == 1)
+			header.put((byte) 0);
+		header.put(ascii("data")).putInt(rf64 ? -1 : (int) dataSize);
+		return header.flip();
+	}
+
+	private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+		var buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0)
+				return null;
+		}
+		return buffer.flip();
+	}
+
+	private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+	}
+
+	private static String id(ByteBuffer buffer) {
+		var id = new byte[4];
+		buffer.get(id);
+		return new String(id, StandardCharsets.US_ASCII);
+	}
+
+	private static byte[] ascii(String id) {
+		return id.getBytes(StandardCharsets.US_ASCII);
+	}
+
+}
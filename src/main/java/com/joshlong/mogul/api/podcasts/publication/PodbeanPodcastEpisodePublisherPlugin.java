@@ -12,14 +12,9 @@ import com.joshlong.podbean.PodbeanClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.BeanNameAware;
-import org.springframework.core.io.Resource;
 import org.springframework.lang.NonNull;
 import org.springframework.stereotype.Component;
-import org.springframework.util.Assert;
-import org.springframework.util.FileCopyUtils;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -79,10 +74,10 @@ class PodbeanPodcastEpisodePublisherPlugin implements PodcastEpisodePublisherPlu
 		// todo some sort of thread local in which to stash the context
 		// to make it available to the multitenant TokenProvider
 
-		var tempProducedAudioFile = this.download(this.managedFileService.read(payload.producedAudio().id()),
+		var tempProducedAudioFile = this.managedFileService.download(payload.producedAudio().id(),
 				FileUtils.tempFileWithExtension("mp3"));
 		log.debug("downloaded the produced audio file for the podcast episode {}", payload.id());
-		var tempGraphicFile = this.download(this.managedFileService.read(payload.producedGraphic().id()),
+		var tempGraphicFile = this.managedFileService.download(payload.producedGraphic().id(),
 				FileUtils.tempFileWithExtension("jpg"));
 		log.debug("downloaded the produced graphic for the episode {}", payload.id());
 
@@ -112,19 +107,6 @@ class PodbeanPodcastEpisodePublisherPlugin implements PodcastEpisodePublisherPlu
 		log.debug("published episode to podbean: [{}]", podbeanEpisode);
 	}
 
-	private File download(Resource resource, File file) {
-		Assert.notNull(resource, "the resource you wanted to" + " download to local file [" + file.getAbsolutePath()
-				+ "] does not exist");
-		try (var bin = resource.getInputStream(); var bout = new FileOutputStream(file)) {
-			FileCopyUtils.copy(bin, bout);
-		} //
-		catch (Throwable throwable) {
-			log.error("could not download the resource {} to file {} ", resource.getFilename(), file.getAbsolutePath());
-			throw new RuntimeException("could not download a resource ", throwable);
-		}
-		return file;
-	}
-
 	@Override
 	public boolean unpublish(Map<String, String> context, Publication publication) {
 		var done = new AtomicBoolean(false);
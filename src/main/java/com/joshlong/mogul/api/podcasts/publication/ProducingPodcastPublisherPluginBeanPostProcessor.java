@@ -60,7 +60,7 @@ class ProducingPodcastPublisherPluginBeanPostProcessor implements BeanFactoryAwa
 
 					var shouldProduceAudio = episode.producedAudioUpdated() == null
 							|| episode.producedAudioUpdated().before(episode.producedAudioAssetsUpdated());
-					this.log.debug("should produce the audio for episode [{}] from scratch? [{}]",
+					this.log.debug("should produce the audio for episode [{}] again? [{}]",
 							"#" + episode.id() + " / " + episode.title(), shouldProduceAudio);
 					var mogulId = podcastService.getPodcastById(episode.podcastId()).mogulId();
 					return transactionTemplate.execute(status -> {
@@ -72,7 +72,7 @@ class ProducingPodcastPublisherPluginBeanPostProcessor implements BeanFactoryAwa
 							var producedManagedFile = podcastProducer.produce(episode);
 							managedFileService.setManagedFileVisibility(producedManagedFile.id(), true);
 							this.log.debug(
-									"produced the audio for episode [{}] from scratch to managedFile: [{}] using producer [{}]",
+									"produced the audio for episode [{}] to managedFile: [{}] using producer [{}]",
 									episode, producedManagedFile, podcastProducer);
 							NotificationEvents.notifyAsync(NotificationEvent.notificationEventFor(mogulId,
 									new PodcastEpisodeRenderFinishedEvent(episode.id()), Long.toString(episode.id()),
@@ -0,0 +1,155 @@
+package com.joshlong.mogul.api.utils;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+import org.springframework.util.unit.DataSize;
+
+import java.io.File;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+/**
+ * a cache of files on the local disk, evicting files once the total size of all of them
+ * exceeds a byte budget. Caffeine decides which go (W-TinyLFU), favoring files that are
+ * used often over those that were merely used recently. concurrent requests for the same
+ * key share a single load, so a load gets a scratch directory of its own from the cache
+ * rather than using anything of the caller's. the files belong to the cache, and they're
+ * read-only: callers should {@link FileUtils#link(File, File) link} or copy them, not
+ * modify, move, or delete them.
+ * <p>
+ * it publishes {@code <name>.hits} and {@code <name>.misses} counters and a
+ * {@code <name>.bytes} gauge.
+ *
+ * @param <K> the key type, which should have sensible {@code equals} and
+ * {@code hashCode} implementations.
+ */
+public class DiskCache<K> {
+
+	private final Logger log = LoggerFactory.getLogger(getClass());
+
+	private final AtomicLong bytes = new AtomicLong();
+
+	private final AsyncCache<K, File> cache;
+
+	private final File root;
+
+	private final File scratch;
+
+	private final Counter hits;
+
+	private final Counter misses;
+
+	public DiskCache(String name, File root, DataSize maximumSize, MeterRegistry registry) {
+		Assert.hasText(name, "the name must not be empty");
+		Assert.notNull(root, "the root directory must not be null");
+		Assert.notNull(maximumSize, "the maximum size must not be null");
+		// whatever's on disk from an earlier run isn't in the cache, so it can't be evicted
+		FileUtils.delete(root);
+		this.root = FileUtils.ensureDirectoryExists(root);
+		this.scratch = FileUtils.ensureDirectoryExists(new File(root, ".scratch"));
+		this.cache = Caffeine.newBuilder()
+			.maximumWeight(Math.max(1, maximumSize.toKilobytes()))
+			.weigher((K key, File file) -> (int) Math.min(Integer.MAX_VALUE, Math.max(1, file.length() / 1024)))
+			.executor(Executors.newVirtualThreadPerTaskExecutor())
+			.removalListener((K key, File file, RemovalCause cause) -> this.onRemoval(key, file, cause))
+			.buildAsync();
+		this.hits = Counter.builder(name + ".hits").register(registry);
+		this.misses = Counter.builder(name + ".misses").register(registry);
+		Gauge.builder(name + ".bytes", this.bytes, AtomicLong::get).baseUnit("bytes").register(registry);
+	}
+
+	/**
+	 * fills the file for a key. the scratch directory is the load's alone, and it's
+	 * deleted, along with anything left in it, once the load is done.
+	 */
+	@FunctionalInterface
+	public interface Loader<K> {
+
+		void load(K key, File file, File scratch);
+
+	}
+
+	public File get(K key, BiConsumer<K, File> loader) {
+		return this.get(key, (Loader<K>) (k, file, scratch) -> loader.accept(k, file));
+	}
+
+	/**
+	 * returns the file for the key, calling the loader to fill a new file if there isn't
+	 * one already. only one loader runs for any given key at a time: everybody else waits
+	 * for, and then shares, its result. interrupting a caller stops it waiting, but not
+	 * the load, which the others may still be waiting for.
+	 */
+	public File get(K key, Loader<K> loader) {
+		var miss = new AtomicBoolean();
+		var future = this.cache.get(key, (k, executor) -> {
+			miss.set(true);
+			return CompletableFuture.supplyAsync(() -> this.load(k, loader), executor);
+		});
+		(miss.get() ? this.misses : this.hits).increment();
+		try {
+			return future.get();
+		} //
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} //
+		catch (ExecutionException e) {
+			var cause = e.getCause() instanceof CompletionException ce ? ce.getCause() : e.getCause();
+			throw cause instanceof RuntimeException re ? re : new RuntimeException(cause);
+		}
+	}
+
+	public void invalidate(K key) {
+		this.cache.synchronous().invalidate(key);
+	}
+
+	public void invalidateAll(Predicate<K> predicate) {
+		this.cache.synchronous().asMap().keySet().removeIf(predicate);
+	}
+
+	private File load(K key, Loader<K> loader) {
+		var file = new File(this.root, UUID.randomUUID().toString());
+		var scratch = FileUtils.ensureDirectoryExists(new File(this.scratch, UUID.randomUUID().toString()));
+		try {
+			loader.load(key, file, scratch);
+			Assert.state(file.exists(), "the loader for [" + key + "] did not produce a file");
+			// links share the file, so nobody may write to one
+			file.setReadOnly();
+			this.bytes.addAndGet(file.length());
+			this.log.debug("cached [{}] in [{}] ({} bytes)", key, file.getAbsolutePath(), file.length());
+			return file;
+		} //
+		catch (RuntimeException e) {
+			FileUtils.delete(file);
+			throw e;
+		} //
+		finally {
+			FileUtils.delete(scratch);
+		}
+	}
+
+	private void onRemoval(K key, File file, RemovalCause cause) {
+		if (file == null)
+			return;
+		var length = file.length();
+		if (FileUtils.delete(file)) {
+			this.bytes.addAndGet(-length);
+		}
+		this.log.debug("removed [{}] from the cache ({})", key, cause);
+	}
+
+}
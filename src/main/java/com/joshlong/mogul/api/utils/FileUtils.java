@@ -6,7 +6,10 @@ import org.springframework.util.StringUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.FileSystemException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
 import java.util.UUID;
 
 public abstract class FileUtils {
@@ -41,6 +44,25 @@ public abstract class FileUtils {
 		return false;
 	}
 
+	/**
+	 * makes the destination a hard link to the source, replacing whatever was there, so
+	 * that even large files are available under another name without copying a byte. it
+	 * copies instead if the two can't be linked, for example because they're on different
+	 * file systems. the two share their contents, so neither should be written to.
+	 */
+	public static File link(File source, File destination) throws IOException {
+		Files.deleteIfExists(destination.toPath());
+		try {
+			Files.createLink(destination.toPath(), source.toPath());
+		} //
+		catch (UnsupportedOperationException | FileSystemException e) {
+			if (e instanceof NoSuchFileException)
+				throw (NoSuchFileException) e;
+			Files.copy(source.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		return destination;
+	}
+
 	@SuppressWarnings("unused")
 	public static File ensureDirectoryExists(File file) {
 		Assert.state(file.exists() || file.mkdirs(), "the directory [" + file.getAbsolutePath() + "] does not exist");
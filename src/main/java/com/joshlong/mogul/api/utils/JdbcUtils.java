@@ -1,14 +1,96 @@
 package com.joshlong.mogul.api.utils;
 
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.simple.JdbcClient;
 import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.util.Assert;
 
 import java.net.URI;
 import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Objects;
+import java.util.function.IntFunction;
 
 @SuppressWarnings("unused")
 public abstract class JdbcUtils {
 
+	/**
+	 * the most ids bound to a single query by
+	 * {@link #queryByIds(JdbcClient, String, Collection, RowMapper)} and friends. larger
+	 * sets are split across several queries.
+	 */
+	public static final int MAXIMUM_IDS_PER_QUERY = 5_000;
+
+	/**
+	 * runs a query whose only parameter is an array of ids, as in
+	 * {@code select * from foo where id = any(?::bigint[])}. binding an array, rather than
+	 * spelling out an {@code in (...)} list, means the SQL is the same no matter how many
+	 * ids there are, so the driver and the database can reuse the prepared statement and
+	 * its plan. duplicate ids are dropped, and very large sets of ids are split across
+	 * several queries of at most {@link #MAXIMUM_IDS_PER_QUERY} ids each.
+	 */
+	public static <T> List<T> queryByIds(JdbcClient db, String sql, Collection<Long> ids, RowMapper<T> rowMapper) {
+		var results = new ArrayList<T>();
+		for (var chunk : chunk(ids))
+			results.addAll(db.sql(sql).param(chunk).query(rowMapper).list());
+		return results;
+	}
+
+	/**
+	 * like {@link #queryByIds(JdbcClient, String, Collection, RowMapper)}, but hands each
+	 * row to the callback rather than mapping it.
+	 */
+	public static void queryByIds(JdbcClient db, String sql, Collection<Long> ids, RowCallbackHandler callback) {
+		for (var chunk : chunk(ids))
+			db.sql(sql).param(chunk).query(callback);
+	}
+
+	/**
+	 * like {@link #queryByIds(JdbcClient, String, Collection, RowMapper)}, but for
+	 * updates. returns the total number of rows affected.
+	 */
+	public static int updateByIds(JdbcClient db, String sql, Collection<Long> ids) {
+		var updated = 0;
+		for (var chunk : chunk(ids))
+			updated += db.sql(sql).param(chunk).update();
+		return updated;
+	}
+
+	/**
+	 * like {@link #queryByIds(JdbcClient, String, Collection, RowCallbackHandler)}, but
+	 * for text keys, as in {@code select * from foo where key = any(?::text[])}. the
+	 * other parameters, if there are any, come before the array, and each chunk of keys
+	 * is run with the same ones.
+	 */
+	public static void queryByKeys(JdbcClient db, String sql, Collection<String> keys, RowCallbackHandler callback,
+			Object... params) {
+		for (var chunk : chunk(keys, String[]::new)) {
+			var values = Arrays.copyOf(params, params.length + 1);
+			values[params.length] = chunk;
+			db.sql(sql).params(values).query(callback);
+		}
+	}
+
+	private static List<Long[]> chunk(Collection<Long> ids) {
+		return chunk(ids, Long[]::new);
+	}
+
+	private static <T> List<T[]> chunk(Collection<T> ids, IntFunction<T[]> arrays) {
+		Assert.notNull(ids, "the ids must not be null");
+		var distinct = new LinkedHashSet<>(ids);
+		distinct.remove(null);
+		var all = distinct.toArray(arrays.apply(0));
+		var chunks = new ArrayList<T[]>((all.length + MAXIMUM_IDS_PER_QUERY - 1) / MAXIMUM_IDS_PER_QUERY);
+		for (var start = 0; start < all.length; start += MAXIMUM_IDS_PER_QUERY)
+			chunks.add(Arrays.copyOfRange(all, start, Math.min(all.length, start + MAXIMUM_IDS_PER_QUERY)));
+		return chunks;
+	}
+
 	public static Number getIdFromKeyHolder(KeyHolder kh) {
 		return (Number) Objects.requireNonNull(kh.getKeys()).get("id");
 	}
@@ -0,0 +1,5 @@
+-- deletion requests are claimed by a node for a while before being worked on, so that
+-- several nodes can drain the queue without stepping on each other. a claim that's
+-- never completed (say, because the node died) simply expires.
+alter table managed_file_deletion_request add column claimed timestamp null;
+create index managed_file_deletion_request_outstanding_index on managed_file_deletion_request (id) where deleted = false;
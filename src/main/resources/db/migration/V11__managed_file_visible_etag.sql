@@ -0,0 +1,5 @@
+-- the ETag of the private object as of the last time it was copied to the visible bucket,
+-- or null if there's no copy. we don't know what's in the visible bucket for files that
+-- are already visible, so they get an ETag that won't match anything, forcing one more copy.
+alter table managed_file add column visible_etag text null;
+update managed_file set visible_etag = '' where visible = true;
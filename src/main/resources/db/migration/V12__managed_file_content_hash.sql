@@ -0,0 +1,7 @@
+-- the SHA-256 of the contents, when we know it. managed files with the same contents can
+-- share a single object in storage, so an object may only be removed once no managed file
+-- refers to it anymore.
+alter table managed_file add column content_hash text null;
+create index managed_file_content_hash_index on managed_file (mogul, bucket, content_hash)
+    where content_hash is not null;
+create index managed_file_storage_key_index on managed_file (bucket, folder, storage_filename);
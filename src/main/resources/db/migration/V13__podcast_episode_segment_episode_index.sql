@@ -0,0 +1,3 @@
+-- an episode's completeness is derived from all of its segments at once, so the segments
+-- need to be found by episode without scanning the whole table.
+create index podcast_episode_segment_podcast_episode_index on podcast_episode_segment (podcast_episode, sequence_number);
@@ -0,0 +1,3 @@
+-- episodes are paged through newest first, by (created, id), so that finding a page costs
+-- the same no matter how far back the catalog goes.
+create index podcast_episode_podcast_created_index on podcast_episode (podcast, created desc, id desc);
@@ -0,0 +1,16 @@
+-- every change to a managed file bumps its version, whichever statement makes it, so that
+-- a node can tell whether the row it has cached is still current with a single lookup.
+alter table managed_file add column version bigint not null default 0;
+
+create or replace function managed_file_next_version() returns trigger as
+$$
+begin
+    new.version := old.version + 1;
+    return new;
+end;
+$$ language plpgsql;
+
+create trigger managed_file_version_trigger
+    before update on managed_file
+    for each row
+execute function managed_file_next_version();
@@ -0,0 +1,6 @@
+-- the managed files whose visible copies are out of date, which are looked for every
+-- minute so that a synchronization that failed, or that was lost in a restart, is tried
+-- again. there should only ever be a handful of them.
+create index managed_file_outdated_visibility_index on managed_file (id)
+    where (visible = true and written = true and visible_etag is distinct from coalesce(etag, ''))
+       or (visible = false and visible_etag is not null);
@@ -0,0 +1,11 @@
+-- a direct upload goes to an object of its own, and the managed file only moves over to it
+-- once the upload is completed, so that an upload that fails or is abandoned leaves the
+-- managed file as it was. until then, this is where we remember which object that is.
+create table managed_file_upload
+(
+    upload_id        text primary key not null,
+    managed_file     bigint           not null references managed_file (id),
+    storage_filename text             not null,
+    created          timestamp        not null default now()
+);
+create index managed_file_upload_managed_file_index on managed_file_upload (managed_file);
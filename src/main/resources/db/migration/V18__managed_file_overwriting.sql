@@ -0,0 +1,4 @@
+-- set while a managed file that has its object to itself is writing new contents to it,
+-- so that no other managed file starts sharing the object, and its old contents, in the
+-- meantime.
+alter table managed_file add column overwriting boolean not null default false;
@@ -0,0 +1,9 @@
+-- episodes get their title and description compositions along with their drafts, but the
+-- episodes that predate that don't have them. they get them here, so that reading an
+-- episode's compositions never has to write anything. the payload of an episode's
+-- composition is its id, as JSON.
+insert into composition (payload, payload_class, field)
+select pe.id::text, 'com.joshlong.mogul.api.podcasts.Episode', f.field
+from podcast_episode pe
+         cross join (values ('title'), ('description')) as f(field)
+on conflict (payload_class, payload, field) do nothing;
@@ -0,0 +1,7 @@
+-- every write to a mogul's podcasts, episodes, or segments bumps their version, so that
+-- a node can tell whether the snapshot it has cached is still current with a single lookup.
+create table podcast_graph_version
+(
+    mogul   bigint not null primary key references mogul (id) on delete cascade,
+    version bigint not null
+);
@@ -0,0 +1,4 @@
+-- remember the ETag S3 hands back for each write, along with when that write happened, so
+-- that clients can revalidate managed files without our having to ask S3 anything
+alter table managed_file add column etag text null;
+alter table managed_file add column updated timestamp null;
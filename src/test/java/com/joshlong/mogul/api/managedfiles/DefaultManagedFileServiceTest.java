@@ -0,0 +1,100 @@
+package com.joshlong.mogul.api.managedfiles;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.simple.JdbcClient;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+@Disabled
+@SpringBootTest(properties = "mogul.managed-files.storage=filesystem")
+class DefaultManagedFileServiceTest {
+
+	private static final AtomicLong MOGUL = new AtomicLong(-1L);
+
+	private final DefaultManagedFileService managedFileService;
+
+	private final ManagedFileDeletionEngine deletionEngine;
+
+	private final Storage storage;
+
+	@TempDir
+	File directory;
+
+	DefaultManagedFileServiceTest(@Autowired DefaultManagedFileService managedFileService,
+			@Autowired ManagedFileDeletionEngine deletionEngine, @Autowired Storage storage) {
+		this.managedFileService = managedFileService;
+		this.deletionEngine = deletionEngine;
+		this.storage = storage;
+	}
+
+	@BeforeAll
+	static void reset(@Autowired JdbcClient db) {
+		MOGUL.set(db.sql("select id from mogul where email ilike ? ")
+			.params("%" + "josh@joshlong.com" + "%")
+			.query(Long.class)
+			.single());
+		Assertions.assertTrue(MOGUL.get() > 0, "you must specify a valid mogul ID");
+	}
+
+	@Test
+	void objectsAreSharedAndOnlyDeletedOnceNobodyRefersToThem() throws Exception {
+		var contents = this.file("contents.txt", "the same contents, twice");
+		var first = this.written("first.txt", contents);
+		var second = this.written("second.txt", contents);
+		Assertions.assertEquals(first.storageFilename(), second.storageFilename(),
+				"managed files with the same contents should share an object");
+		var key = first.folder() + '/' + first.storageFilename();
+		this.managedFileService.deleteManagedFile(first.id());
+		this.deletionEngine.drain();
+		Assertions.assertTrue(this.storage.exists(first.bucket(), key),
+				"the object should stay for as long as the second managed file refers to it");
+		this.managedFileService.deleteManagedFile(second.id());
+		this.deletionEngine.drain();
+		Assertions.assertFalse(this.storage.exists(first.bucket(), key),
+				"the object should go once nobody refers to it");
+	}
+
+	@Test
+	void writingToASharedObjectGivesTheManagedFileOneOfItsOwn() throws Exception {
+		var contents = this.file("contents.txt", "the same contents, twice");
+		var first = this.written("first.txt", contents);
+		var second = this.written("second.txt", contents);
+		Assertions.assertEquals(first.storageFilename(), second.storageFilename());
+		this.managedFileService.write(second.id(), "second.txt", MediaType.TEXT_PLAIN,
+				this.file("different.txt", "something else altogether"));
+		second = this.managedFileService.getManagedFile(second.id());
+		Assertions.assertNotEquals(first.storageFilename(), second.storageFilename(),
+				"new contents should go to an object of their own");
+		this.deletionEngine.drain();
+		try (var in = this.managedFileService.read(first.id()).getInputStream()) {
+			Assertions.assertEquals("the same contents, twice", new String(in.readAllBytes(), StandardCharsets.UTF_8),
+					"the first managed file should still have its contents");
+		}
+		this.managedFileService.deleteManagedFiles(List.of(first.id(), second.id()));
+	}
+
+	private ManagedFile written(String filename, File contents) {
+		var managedFile = this.managedFileService.createManagedFile(MOGUL.get(), "tests", filename, 0,
+				MediaType.TEXT_PLAIN, false);
+		this.managedFileService.write(managedFile.id(), filename, MediaType.TEXT_PLAIN, contents);
+		return this.managedFileService.getManagedFile(managedFile.id());
+	}
+
+	private File file(String name, String contents) throws Exception {
+		var file = new File(this.directory, name);
+		Files.writeString(file.toPath(), contents);
+		return file;
+	}
+
+}
@@ -0,0 +1,89 @@
+package com.joshlong.mogul.api.managedfiles;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.MediaType;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+class FileSystemStorageTest {
+
+	private static final byte[] CONTENT = "the quick brown fox jumps over the lazy dog".getBytes(StandardCharsets.UTF_8);
+
+	@Test
+	void writeReadAndRemove(@TempDir File root) throws Exception {
+		var storage = new FileSystemStorage(root);
+		var etag = storage.write("bucket", "folder/object", new ByteArrayResource(CONTENT), MediaType.TEXT_PLAIN);
+		Assertions.assertEquals("\"77add1d5f41223d5582fca736a5cb335\"", etag, "the etag should be the MD5");
+		Assertions.assertTrue(storage.exists("bucket", "folder/object"));
+		var head = storage.head("bucket", "folder/object");
+		Assertions.assertEquals(etag, head.etag());
+		Assertions.assertEquals(CONTENT.length, head.size());
+		Assertions.assertEquals(MediaType.TEXT_PLAIN_VALUE, head.contentType());
+		try (var in = storage.read("bucket", "folder/object").getInputStream()) {
+			Assertions.assertArrayEquals(CONTENT, in.readAllBytes());
+		}
+		storage.remove("bucket", "folder/object");
+		Assertions.assertFalse(storage.exists("bucket", "folder/object"));
+		Assertions.assertNull(storage.head("bucket", "folder/object"));
+	}
+
+	@Test
+	void rangedRead(@TempDir File root) throws Exception {
+		var storage = new FileSystemStorage(root);
+		var etag = storage.write("bucket", "folder/object", new ByteArrayResource(CONTENT), MediaType.TEXT_PLAIN);
+		try (var in = storage.read("bucket", "folder/object", 4, 8, etag).getInputStream()) {
+			Assertions.assertEquals("quick", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+		}
+		storage.write("bucket", "folder/object", new ByteArrayResource(new byte[] { 1, 2, 3 }), MediaType.TEXT_PLAIN);
+		Assertions.assertThrows(RuntimeException.class, () -> storage.read("bucket", "folder/object", 0, 1, etag),
+				"a range of the old version must not be served from the new one");
+	}
+
+	@Test
+	void copyAndDownload(@TempDir File root, @TempDir File downloads) throws Exception {
+		var storage = new FileSystemStorage(root);
+		storage.write("bucket", "folder/object", new ByteArrayResource(CONTENT), MediaType.TEXT_PLAIN);
+		storage.copy("bucket", "bucket-visible", "folder/object", null);
+		Assertions.assertTrue(storage.exists("bucket-visible", "folder/object"));
+		var downloaded = storage.download("bucket-visible", "folder/object", new File(downloads, "object"));
+		Assertions.assertArrayEquals(CONTENT, Files.readAllBytes(downloaded.toPath()));
+	}
+
+	@Test
+	void directUpload(@TempDir File root) throws Exception {
+		var storage = new FileSystemStorage(root);
+		var upload = storage.startDirectUpload("bucket", "folder/object", MediaType.TEXT_PLAIN, CONTENT.length);
+		Assertions.assertEquals(1, upload.partUrls().size());
+		Assertions.assertEquals("/managedfiles/uploads/" + upload.uploadId() + "/parts/1",
+				upload.partUrls().getFirst().toString());
+		Assertions.assertFalse(storage.exists("bucket", "folder/object"), "nothing is there until it's completed");
+		var partETag = storage.writeDirectUploadPart(upload.uploadId(), 1, new ByteArrayInputStream(CONTENT));
+		Assertions.assertThrows(RuntimeException.class, () -> storage.completeDirectUpload("bucket", "folder/object",
+				upload.uploadId(), List.of("\"not-the-etag\"")));
+		var stored = storage.completeDirectUpload("bucket", "folder/object", upload.uploadId(), List.of(partETag));
+		Assertions.assertEquals("\"77add1d5f41223d5582fca736a5cb335\"", stored.etag());
+		Assertions.assertEquals(MediaType.TEXT_PLAIN_VALUE, stored.contentType());
+		try (var in = storage.read("bucket", "folder/object").getInputStream()) {
+			Assertions.assertArrayEquals(CONTENT, in.readAllBytes());
+		}
+		Assertions.assertThrows(RuntimeException.class,
+				() -> storage.writeDirectUploadPart(upload.uploadId(), 1, new ByteArrayInputStream(CONTENT)),
+				"the upload is gone once it's completed");
+		Assertions.assertThrows(IllegalArgumentException.class,
+				() -> storage.writeDirectUploadPart("../../etc", 1, new ByteArrayInputStream(CONTENT)));
+	}
+
+	@Test
+	void keysCannotEscapeTheRoot(@TempDir File root) {
+		var storage = new FileSystemStorage(root);
+		Assertions.assertThrows(IllegalStateException.class, () -> storage.exists("bucket", "../../etc/passwd"));
+	}
+
+}
@@ -0,0 +1,79 @@
+package com.joshlong.mogul.api.managedfiles;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+class MultipartStreamReaderTest {
+
+	private static final String BOUNDARY = "----mogul-boundary";
+
+	@Test
+	void readsEveryPart() throws Exception {
+		// large enough that the delimiter is bound to straddle a refill of the buffer
+		var file = new byte[300 * 1024];
+		new Random(42).nextBytes(file);
+		var body = new ByteArrayOutputStream();
+		body.writeBytes(("preamble\r\n--" + BOUNDARY + "\r\n"
+				+ "Content-Disposition: form-data; name=\"title\"\r\n\r\n" + "hello\r\n--" + BOUNDARY + "\r\n"
+				+ "Content-Disposition: form-data; name=\"file\"; filename=\"episode.mp3\"\r\n"
+				+ "Content-Type: audio/mpeg\r\n\r\n")
+			.getBytes(StandardCharsets.UTF_8));
+		body.writeBytes(file);
+		body.writeBytes(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8));
+		try (var reader = new MultipartStreamReader(new ByteArrayInputStream(body.toByteArray()), BOUNDARY,
+				Long.MAX_VALUE)) {
+			var title = reader.next();
+			Assertions.assertEquals("title", title.name());
+			Assertions.assertNull(title.filename());
+			Assertions.assertEquals("hello", new String(title.body().readAllBytes(), StandardCharsets.UTF_8));
+			var part = reader.next();
+			Assertions.assertEquals("file", part.name());
+			Assertions.assertEquals("episode.mp3", part.filename());
+			Assertions.assertEquals("audio/mpeg", part.contentType());
+			Assertions.assertArrayEquals(file, part.body().readAllBytes());
+			Assertions.assertNull(reader.next());
+		}
+	}
+
+	@Test
+	void skipsPartsThatAreNotRead() throws Exception {
+		var body = "--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"a\"\r\n\r\nignored\r\n--" + BOUNDARY
+				+ "\r\nContent-Disposition: form-data; name=\"b\"\r\n\r\nread\r\n--" + BOUNDARY + "--";
+		try (var reader = new MultipartStreamReader(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)),
+				BOUNDARY, Long.MAX_VALUE)) {
+			Assertions.assertEquals("a", reader.next().name());
+			var b = reader.next();
+			Assertions.assertEquals("b", b.name());
+			Assertions.assertEquals("read", new String(b.body().readAllBytes(), StandardCharsets.UTF_8));
+			Assertions.assertNull(reader.next());
+		}
+	}
+
+	@Test
+	void refusesBodiesThatAreTooLarge() throws Exception {
+		var body = "--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"file\"; filename=\"a.mp3\"\r\n\r\n"
+				+ "x".repeat(100 * 1024) + "\r\n--" + BOUNDARY + "--";
+		try (var reader = new MultipartStreamReader(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)),
+				BOUNDARY, 64 * 1024)) {
+			var part = reader.next();
+			Assertions.assertThrows(MaxUploadSizeExceededException.class, () -> part.body().readAllBytes());
+		}
+	}
+
+	@Test
+	void sniffsTheMediaType() throws Exception {
+		var id3 = new byte[] { 'I', 'D', '3', 4, 0, 0, 0, 0, 0, 0 };
+		try (var in = new ContentInspectingInputStream(new ByteArrayInputStream(id3))) {
+			Assertions.assertEquals(CommonMediaTypes.MP3, in.sniffedMediaType());
+			Assertions.assertArrayEquals(id3, in.readAllBytes(), "sniffing must not consume anything");
+			Assertions.assertEquals(id3.length, in.size());
+		}
+	}
+
+}
@@ -0,0 +1,33 @@
+package com.joshlong.mogul.api.podcasts.production;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.List;
+
+class FilterGraphPodcastProductionEngineTest {
+
+	@Test
+	void joinsEachSegmentToTheOneBeforeIt() {
+		var graph = FilterGraphPodcastProductionEngine.filterGraph(List.of(segment(0), segment(0), segment(1500)));
+		Assertions.assertEquals(String.join(";", //
+				"[0:a]aresample=44100,aformat=sample_fmts=fltp:channel_layouts=stereo[a0]",
+				"[1:a]aresample=44100,aformat=sample_fmts=fltp:channel_layouts=stereo[a1]",
+				"[2:a]aresample=44100,aformat=sample_fmts=fltp:channel_layouts=stereo[a2]",
+				"[a0][a1]concat=n=2:v=0:a=1[j1]", //
+				"[j1][a2]acrossfade=d=1.500:c1=tri:c2=tri[out]"), graph);
+	}
+
+	@Test
+	void passesASingleSegmentStraightThrough() {
+		var graph = FilterGraphPodcastProductionEngine.filterGraph(List.of(segment(2000)));
+		Assertions.assertTrue(graph.endsWith(";[a0]anull[out]"), graph);
+	}
+
+	private static PodcastProductionEngine.SegmentAudio segment(long crossFadeMillis) {
+		return new PodcastProductionEngine.SegmentAudio(new File("segment.mp3"), Duration.ofMillis(crossFadeMillis));
+	}
+
+}
@@ -0,0 +1,119 @@
+package com.joshlong.mogul.api.podcasts.production;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+class WavConcatenatorTest {
+
+	@TempDir
+	File directory;
+
+	@Test
+	void concatenatesTheSamples() throws Exception {
+		var first = samples(4_000);
+		var second = samples(6_000);
+		// ffmpeg likes to put a LIST chunk before the samples
+		var a = this.wav("a.wav", fmt(44_100, 2, 16), first, true);
+		var b = this.wav("b.wav", fmt(44_100, 2, 16), second, false);
+		var wavs = List.of(WavConcatenator.read(a), WavConcatenator.read(b));
+		Assertions.assertTrue(WavConcatenator.compatible(wavs));
+		var output = new File(this.directory, "out.wav");
+		WavConcatenator.concatenate(wavs, output);
+		var result = WavConcatenator.read(output);
+		Assertions.assertNotNull(result);
+		Assertions.assertArrayEquals(fmt(44_100, 2, 16), result.fmt());
+		Assertions.assertEquals(first.length + second.length, result.dataSize());
+		var bytes = Files.readAllBytes(output.toPath());
+		Assertions.assertEquals(bytes.length - 8, ByteBuffer.wrap(bytes, 4, 4).order(ByteOrder.LITTLE_ENDIAN).getInt());
+		var samples = Arrays.copyOfRange(bytes, (int) result.dataOffset(), bytes.length);
+		Assertions.assertArrayEquals(first, Arrays.copyOfRange(samples, 0, first.length));
+		Assertions.assertArrayEquals(second, Arrays.copyOfRange(samples, first.length, samples.length));
+	}
+
+	@Test
+	void refusesFormatsThatDiffer() throws Exception {
+		var a = this.wav("a.wav", fmt(44_100, 2, 16), samples(400), false);
+		var b = this.wav("b.wav", fmt(48_000, 2, 16), samples(400), false);
+		Assertions.assertFalse(WavConcatenator.compatible(List.of(WavConcatenator.read(a), WavConcatenator.read(b))));
+	}
+
+	@Test
+	void refusesFilesThatAreNotWavs() throws Exception {
+		var mp3 = new File(this.directory, "a.mp3");
+		Files.write(mp3.toPath(), "ID3 and then some".getBytes(StandardCharsets.US_ASCII));
+		Assertions.assertNull(WavConcatenator.read(mp3));
+	}
+
+	@Test
+	void switchesToRf64WhenTheSizesDoNotFit() {
+		var dataSize = 5L * 1024 * 1024 * 1024;
+		var header = WavConcatenator.header(fmt(44_100, 2, 16), dataSize).order(ByteOrder.LITTLE_ENDIAN);
+		Assertions.assertEquals("RF64", ascii(header, 0));
+		Assertions.assertEquals(-1, header.getInt(4));
+		Assertions.assertEquals("ds64", ascii(header, 12));
+		Assertions.assertEquals(header.limit() - 8 + dataSize, header.getLong(20));
+		Assertions.assertEquals(dataSize, header.getLong(28));
+		Assertions.assertEquals(dataSize / 4, header.getLong(36));
+		Assertions.assertEquals("data", ascii(header, header.limit() - 8));
+		Assertions.assertEquals(-1, header.getInt(header.limit() - 4));
+	}
+
+	private File wav(String name, byte[] fmt, byte[] samples, boolean list) throws Exception {
+		var header = WavConcatenator.header(fmt, samples.length);
+		var bytes = new ByteArrayOutputStream();
+		bytes.write(header.array(), 0, header.limit() - 8);
+		if (list) {
+			var info = "INFOISFT\u0006\u0000\u0000\u0000mogul\u0000".getBytes(StandardCharsets.US_ASCII);
+			bytes.write(chunk("LIST", info.length));
+			bytes.write(info);
+		}
+		bytes.write(header.array(), header.limit() - 8, 8);
+		bytes.write(samples);
+		var file = new File(this.directory, name);
+		Files.write(file.toPath(), bytes.toByteArray());
+		return file;
+	}
+
+	private static byte[] fmt(int sampleRate, int channels, int bitsPerSample) {
+		var blockAlign = channels * bitsPerSample / 8;
+		return ByteBuffer.allocate(16)
+			.order(ByteOrder.LITTLE_ENDIAN)
+			.putShort((short) 1)
+			.putShort((short) channels)
+			.putInt(sampleRate)
+			.putInt(sampleRate * blockAlign)
+			.putShort((short) blockAlign)
+			.putShort((short) bitsPerSample)
+			.array();
+	}
+
+	private static byte[] chunk(String id, int size) {
+		return ByteBuffer.allocate(8)
+			.order(ByteOrder.LITTLE_ENDIAN)
+			.put(id.getBytes(StandardCharsets.US_ASCII))
+			.putInt(size)
+			.array();
+	}
+
+	private static byte[] samples(int length) {
+		var samples = new byte[length];
+		new Random(length).nextBytes(samples);
+		return samples;
+	}
+
+	private static String ascii(ByteBuffer buffer, int index) {
+		return new String(buffer.array(), index, 4, StandardCharsets.US_ASCII);
+	}
+
+}